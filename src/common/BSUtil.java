@@ -1,10 +1,12 @@
 package common;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -90,6 +92,17 @@ public class BSUtil {
 		return complete.digest();
 	}
 
+	/**
+	 * 
+	 * @param filename
+	 * @return The SHA1 checksum of a file in hex
+	 * @throws NoSuchAlgorithmException
+	 * @throws IOException
+	 */
+	public static String SHA1File(String filename) throws NoSuchAlgorithmException, IOException {
+		return convertToHex(SHA1Checksum(filename));
+	}
+
 	/**
 	 * 
 	 * @param filename
@@ -154,6 +167,42 @@ public class BSUtil {
 		ostream.close();
 	}
 
+	/**
+	 * Replace a text file with the given lines.  The lines are written to {@link #tempFileFor(File)}
+	 * and then renamed over the file, so a crash never leaves a half-written file.
+	 * @param file
+	 * @param lines
+	 * @throws IOException
+	 */
+	public static void writeLinesAtomically(File file, Iterable<String> lines) throws IOException {
+		File tmpFile = tempFileFor(file);
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8"));
+		try {
+			for (String line: lines) {
+				writer.write(line);
+				writer.newLine();
+			}
+		} finally {
+			writer.close();
+		}
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Could not replace " + file);
+		}
+		if (!tmpFile.renameTo(file)) {
+			throw new IOException("Could not rename " + tmpFile + " to " + file);
+		}
+	}
+
+	/**
+	 * 
+	 * @param file
+	 * @return The file that {@link #writeLinesAtomically(File, Iterable)} writes to first.  If the
+	 * file is missing, a crash may have left its new contents here.
+	 */
+	public static File tempFileFor(File file) {
+		return new File(file.getPath() + ".tmp");
+	}
+
 	public static boolean initializedBattlecode() {
 		File bserver = new File(Config.battlecodeServerFile);
 		return bserver.exists();
@@ -14,6 +14,12 @@ public class Config {
 	// HASH_VERSION affects the dependency hash algorithm.  This is only changed to force the server to re-send
 	// dependencies when a user upgrades the software
 	public static final int HASH_VERSION = 1;
+	// RESULT_VERSION is the storage format of match analysis results.  When it is changed, stored results are
+	// rewritten on startup
+	public static final int RESULT_VERSION = 1;
+	// ANALYZER_VERSION is the version of the match analysis in GameData.  Increment it when a metric is added or
+	// changed, and the master re-analyzes the stored replays on startup
+	public static final int ANALYZER_VERSION = 2;
 	public static final int RESTART_STATUS = 121;
 	public static final boolean DEBUG = false;
 	public static final boolean SHOW_SQL = false;
@@ -31,6 +37,8 @@ public class Config {
 
 	// Static file locations
 	public static final String matchDir = "static" + File.separator + "matches" + File.separator;
+	/** Match files uploaded by workers are staged here until the master moves them into matchDir */
+	public static final String uploadDir = matchDir + "uploads" + File.separator;
 	public static final String scrimmageDir = "static" + File.separator + "scrimmages" + File.separator;
 	public static final String mapsDir = "maps" + File.separator;
 	public static final String teamsDir = "teams" + File.separator;
@@ -40,5 +48,20 @@ public class Config {
 	public static final String allowedPackagesFile = "AllowedPackages.txt";
 	public static final String disallowedClassesFile = "DisallowedClasses.txt";
 	public static final String methodCostsFile = "MethodCosts.txt";
+	/** Players compiled by the master, which are sent to the workers along with the player jars */
+	public static final String compiledPlayersDir = "compiled-players" + File.separator;
+	/** MASTER ONLY: Journal of the files waiting to be deleted */
+	public static final String artifactJournalFile = "artifact-gc.journal";
+	/** WORKER ONLY: Index of the hashes of the dependency files */
+	public static final String hashIndexFile = "file-hashes.idx";
+	/** WORKER ONLY: Compiled players are kept here between matches and restarts */
+	public static final String playerCacheDir = "player-cache" + File.separator;
+	/** WORKER ONLY: How many bytes of compiled players to keep */
+	public static final long PLAYER_CACHE_QUOTA = 256L * 1024 * 1024;
+	/** WORKER ONLY: How many matches a core runs in one JVM before starting a fresh one */
+	public static final int MATCH_PROCESS_MAX_MATCHES = 50;
+	/** WORKER ONLY: Run every core's matches inside the worker JVM, each core with its own copy of the battlecode 
+	 * engine.  Otherwise every core but the first runs its matches in a separate JVM */
+	public static final boolean ISOLATED_MATCHES = true;
 	
 }
\ No newline at end of file
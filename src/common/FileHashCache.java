@@ -0,0 +1,142 @@
+package common;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Caches the dependency hashes of files.  A cached hash is reused as long as the size and
+ * modification time of the file have not changed.  If the cache is given an index file, the 
+ * hashes are saved to it so they survive restarts.
+ * @author stevearc
+ *
+ */
+public class FileHashCache {
+	private static Logger _log = Logger.getLogger(FileHashCache.class);
+	private HashMap<String, Entry> entries = new HashMap<String, Entry>();
+	private File indexFile;
+
+	/**
+	 * Create a cache that only lives in memory
+	 */
+	public FileHashCache() {
+	}
+
+	/**
+	 * Create a cache that is persisted to an index file
+	 * @param indexFile
+	 */
+	public FileHashCache(String indexFile) {
+		this.indexFile = new File(indexFile);
+		load();
+	}
+
+	/**
+	 *
+	 * @param filename
+	 * @return The same value as {@link BSUtil#bsHashDependency(String)}
+	 * @throws NoSuchAlgorithmException
+	 * @throws IOException
+	 */
+	public synchronized String bsHashDependency(String filename) throws NoSuchAlgorithmException, IOException {
+		File file = new File(filename);
+		if (!file.exists()) {
+			entries.remove(filename);
+			throw new FileNotFoundException(filename + " does not exist");
+		}
+		long size = file.length();
+		long lastModified = file.lastModified();
+		Entry entry = entries.get(filename);
+		if (entry == null || entry.size != size || entry.lastModified != lastModified) {
+			entry = new Entry(size, lastModified, BSUtil.bsHashDependency(filename));
+			entries.put(filename, entry);
+			save();
+		}
+		return entry.hash;
+	}
+
+	/**
+	 * Forget the hash of a file
+	 * @param filename
+	 */
+	public synchronized void invalidate(String filename) {
+		if (entries.remove(filename) != null) {
+			save();
+		}
+	}
+
+	/**
+	 * Forget all hashes
+	 */
+	public synchronized void invalidateAll() {
+		entries.clear();
+		save();
+	}
+
+	private void load() {
+		File source = indexFile;
+		if (!source.exists()) {
+			source = BSUtil.tempFileFor(indexFile);
+			if (!source.exists()) {
+				return;
+			}
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(source), "UTF-8"));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// size, modification time, hash, filename
+				String[] fields = line.split("\t", 4);
+				if (fields.length != 4) {
+					continue;
+				}
+				try {
+					entries.put(fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]));
+				} catch (NumberFormatException e) {
+					// Skip the corrupted line
+				}
+			}
+			reader.close();
+		} catch (IOException e) {
+			_log.warn("Error reading hash index " + source, e);
+		}
+	}
+
+	private void save() {
+		if (indexFile == null) {
+			return;
+		}
+		List<String> lines = new ArrayList<String>(entries.size());
+		for (Map.Entry<String, Entry> e: entries.entrySet()) {
+			Entry entry = e.getValue();
+			lines.add(entry.size + "\t" + entry.lastModified + "\t" + entry.hash + "\t" + e.getKey());
+		}
+		try {
+			BSUtil.writeLinesAtomically(indexFile, lines);
+		} catch (IOException e) {
+			_log.warn("Error writing hash index " + indexFile, e);
+		}
+	}
+
+	private static class Entry {
+		public final long size;
+		public final long lastModified;
+		public final String hash;
+
+		public Entry(long size, long lastModified, String hash) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+	}
+}
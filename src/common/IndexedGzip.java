@@ -0,0 +1,238 @@
+package common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Writes gzip files that can be read from the middle.  The compressor is fully flushed every
+ * {@link #BLOCK_SIZE} bytes, so each block can be decompressed without the ones before it, and
+ * the offsets of the blocks are stored in an extra field of the gzip header.  The file is still a
+ * single ordinary gzip member, so any gzip reader can read all of it.
+ * @author stevearc
+ *
+ */
+public class IndexedGzip {
+	/** Number of uncompressed bytes in each block */
+	public static final int BLOCK_SIZE = 256 * 1024;
+	private static final int FEXTRA = 4;
+	private static final byte SUBFIELD_ID1 = 'B';
+	private static final byte SUBFIELD_ID2 = 'I';
+	private static final int ENTRY_SIZE = 16;
+	// The index has to fit in the 64KB extra field
+	private static final int MAX_ENTRIES = (0xffff - 4) / ENTRY_SIZE;
+
+	/**
+	 * Compress a stream into a file
+	 * @param in
+	 * @param target
+	 * @throws IOException
+	 */
+	public static void write(InputStream in, File target) throws IOException {
+		// The index goes before the data, so compress to a temporary file first
+		File body = File.createTempFile("gzip", ".tmp");
+		try {
+			List<long[]> blocks = new ArrayList<long[]>();
+			CRC32 crc = new CRC32();
+			long size = 0;
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(body));
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			try {
+				byte[] input = new byte[64 * 1024];
+				byte[] output = new byte[64 * 1024];
+				long compressed = 0;
+				long nextBlock = BLOCK_SIZE;
+				blocks.add(new long[] {0, 0});
+				int n;
+				while ((n = in.read(input, 0, (int) Math.min(input.length, nextBlock - size))) != -1) {
+					crc.update(input, 0, n);
+					size += n;
+					deflater.setInput(input, 0, n);
+					while (!deflater.needsInput()) {
+						compressed += deflate(deflater, output, out, Deflater.NO_FLUSH);
+					}
+					if (size == nextBlock && blocks.size() < MAX_ENTRIES) {
+						int flushed;
+						do {
+							flushed = deflate(deflater, output, out, Deflater.FULL_FLUSH);
+							compressed += flushed;
+						} while (flushed == output.length);
+						blocks.add(new long[] {size, compressed});
+						nextBlock += BLOCK_SIZE;
+					} else if (size == nextBlock) {
+						nextBlock = Long.MAX_VALUE;
+					}
+				}
+				deflater.finish();
+				while (!deflater.finished()) {
+					deflate(deflater, output, out, Deflater.NO_FLUSH);
+				}
+			} finally {
+				deflater.end();
+				out.close();
+			}
+
+			int headerSize = 10 + 2 + 4 + blocks.size() * ENTRY_SIZE;
+			DataOutputStream gz = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target)));
+			try {
+				gz.write(new byte[] {(byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, FEXTRA, 0, 0, 0, 0, 0, 0});
+				writeShort(gz, 4 + blocks.size() * ENTRY_SIZE);
+				gz.write(SUBFIELD_ID1);
+				gz.write(SUBFIELD_ID2);
+				writeShort(gz, blocks.size() * ENTRY_SIZE);
+				for (long[] block: blocks) {
+					gz.writeLong(block[0]);
+					gz.writeLong(headerSize + block[1]);
+				}
+				InputStream bodyIn = new FileInputStream(body);
+				try {
+					IOUtils.copy(bodyIn, gz);
+				} finally {
+					bodyIn.close();
+				}
+				writeInt(gz, crc.getValue());
+				writeInt(gz, size);
+			} finally {
+				gz.close();
+			}
+		} finally {
+			body.delete();
+		}
+	}
+
+	private static int deflate(Deflater deflater, byte[] output, OutputStream out, int flush) throws IOException {
+		int n = deflater.deflate(output, 0, output.length, flush);
+		out.write(output, 0, n);
+		return n;
+	}
+
+	private static void writeShort(OutputStream out, int value) throws IOException {
+		out.write(value & 0xff);
+		out.write((value >> 8) & 0xff);
+	}
+
+	private static void writeInt(OutputStream out, long value) throws IOException {
+		writeShort(out, (int) (value & 0xffff));
+		writeShort(out, (int) ((value >> 16) & 0xffff));
+	}
+
+	/**
+	 * Open a gzip file at an offset in its uncompressed data.  Files without an index are read
+	 * from the beginning.
+	 * @param file
+	 * @param offset
+	 * @return The uncompressed data, starting at offset
+	 * @throws IOException
+	 */
+	public static InputStream open(File file, long offset) throws IOException {
+		FileInputStream fileIn = new FileInputStream(file);
+		InputStream in;
+		long start;
+		try {
+			long[] block = findBlock(readIndex(fileIn), offset);
+			if (block == null) {
+				fileIn.close();
+				in = new GZIPInputStream(new FileInputStream(file));
+				start = 0;
+			} else {
+				start = block[0];
+				fileIn.getChannel().position(block[1]);
+				final Inflater inflater = new Inflater(true);
+				in = new InflaterInputStream(new BufferedInputStream(fileIn), inflater) {
+					@Override
+					public void close() throws IOException {
+						super.close();
+						inflater.end();
+					}
+				};
+			}
+		} catch (IOException e) {
+			fileIn.close();
+			throw e;
+		}
+		try {
+			IOUtils.skip(in, offset - start);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		return in;
+	}
+
+	/**
+	 * @return The uncompressed and file offsets of the blocks, or null if the file has no index
+	 */
+	private static long[][] readIndex(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		byte[] header = new byte[10];
+		data.readFully(header);
+		if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b) {
+			throw new IOException("Not in gzip format");
+		}
+		int flags = header[3] & 0xff;
+		if ((flags & FEXTRA) == 0) {
+			return null;
+		}
+		byte[] extra = new byte[readShort(data)];
+		data.readFully(extra);
+		// The index is in our subfield, skip any others
+		int pos = 0;
+		while (pos + 4 <= extra.length) {
+			int length = (extra[pos + 2] & 0xff) | ((extra[pos + 3] & 0xff) << 8);
+			if (extra[pos] == SUBFIELD_ID1 && extra[pos + 1] == SUBFIELD_ID2) {
+				DataInputStream entries = new DataInputStream(new ByteArrayInputStream(extra, pos + 4, length));
+				long[][] index = new long[length / ENTRY_SIZE][];
+				for (int i = 0; i < index.length; i++) {
+					index[i] = new long[] {entries.readLong(), entries.readLong()};
+				}
+				return index;
+			}
+			pos += 4 + length;
+		}
+		return null;
+	}
+
+	private static int readShort(InputStream in) throws IOException {
+		int b1 = in.read();
+		int b2 = in.read();
+		if (b2 == -1) {
+			throw new IOException("Unexpected end of gzip header");
+		}
+		return b1 | (b2 << 8);
+	}
+
+	/**
+	 * @return The last block that starts at or before offset, or null if there is no index
+	 */
+	private static long[] findBlock(long[][] index, long offset) {
+		if (index == null || index.length == 0) {
+			return null;
+		}
+		long[] block = index[0];
+		for (long[] b: index) {
+			if (b[0] > offset) {
+				break;
+			}
+			block = b;
+		}
+		return block;
+	}
+
+}
@@ -19,14 +19,33 @@ public class NetworkMatch implements Serializable {
 	public final String team_b;
 	public final BSMap map;
 	public final Long seed;
+	public final String team_a_hash;
+	public final String team_b_hash;
 	
 	public NetworkMatch(Long run_id, Long id, String team_a, String team_b, BSMap map, Long seed) {
+		this(run_id, id, team_a, team_b, map, seed, null, null);
+	}
+	
+	public NetworkMatch(Long run_id, Long id, String team_a, String team_b, BSMap map, Long seed, 
+			String team_a_hash, String team_b_hash) {
 		this.run_id = run_id;
 		this.id = id;
 		this.team_a = team_a;
 		this.team_b = team_b;
 		this.map = map;
 		this.seed = seed;
+		this.team_a_hash = team_a_hash;
+		this.team_b_hash = team_b_hash;
+	}
+	
+	/**
+	 * 
+	 * @param teamAHash
+	 * @param teamBHash
+	 * @return A copy of this match that tells the worker which versions of the players to use
+	 */
+	public NetworkMatch withTeamHashes(String teamAHash, String teamBHash) {
+		return new NetworkMatch(run_id, id, team_a, team_b, map, seed, teamAHash, teamBHash);
 	}
 	
 	@Override
@@ -44,6 +44,7 @@ import org.apache.log4j.PatternLayout;
 
 import web.WebServer;
 import web.WebUtil;
+import worker.MatchProcess;
 import worker.MatchRunner;
 import worker.Worker;
 
@@ -61,6 +62,7 @@ import common.HibernateUtil;
 public class Main {
 	private static Logger _log = Logger.getLogger(Main.class);
 	public static final String runMatchArg = "runmatch";
+	public static final String matchProcessArg = "matchprocess";
 
 	public static void main(String[] args) {
 		Options options = new Options();
@@ -84,6 +86,7 @@ public class Main {
 		}
 		// This option should not be made visible to the user
 		allOptions.addOption(runMatchArg, false, "debug method for running a match.  Don't use this unless you know what you're doing.");
+		allOptions.addOption(matchProcessArg, false, "run matches sent by a worker over stdin.  Don't use this unless you know what you're doing.");
 
 		CommandLineParser parser = new GnuParser();
 		CommandLine cmd = null;
@@ -140,6 +143,11 @@ public class Main {
 			}
 			System.exit(0);
 		}
+		if (cmd.hasOption(matchProcessArg)) {
+			// This is started by a worker's MatchProcess
+			MatchProcess.serve();
+			System.exit(0);
+		}
 		
 		try {
 			int dataPort = Config.DEFAULT_DATA_PORT;
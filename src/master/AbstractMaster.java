@@ -4,26 +4,43 @@ import java.io.File;
 import java.util.List;
 import java.util.Set;
 
+import master.MasterEventLoop.EventType;
 import model.BSScrimmageSet;
 import networking.Packet;
 
 import common.NetworkMatch;
 
 /**
- * Provides static methods to perform asynchronous calls to the master
+ * Provides static methods to perform asynchronous calls to the master.  The calls are run in 
+ * order by the master's {@link MasterEventLoop}.  Slow file system maintenance and file transfers to
+ * workers each run on a separate loop so they don't hold up handing out matches.
  * @author stevearc
  *
  */
 public abstract class AbstractMaster {
 	protected static AbstractMaster singleton;
+	protected MasterEventLoop eventLoop;
+	protected MasterEventLoop maintenanceLoop;
+	protected MasterEventLoop transferLoop;
 	
 	protected AbstractMaster() {
 		singleton = this;
+		eventLoop = new MasterEventLoop("master-event-loop");
+		maintenanceLoop = new MasterEventLoop("master-maintenance");
+		transferLoop = new MasterEventLoop("master-transfers");
 	}
 	
 	public static AbstractMaster getMaster() {
 		return singleton;
 	}
+	
+	public static MasterEventLoop getEventLoop() {
+		return singleton.eventLoop;
+	}
+	
+	public static MasterEventLoop getMaintenanceLoop() {
+		return singleton.maintenanceLoop;
+	}
 
 	/**
 	 * Update the battlecode source files
@@ -32,14 +49,14 @@ public abstract class AbstractMaster {
 	 */
 	public static void kickoffUpdateBattlecodeFiles(final File battlecode_server, final File allowedPackages, 
 			final File disallowedClasses, final File methodCosts) {
-		new Thread(new Runnable(){
+		singleton.eventLoop.submit(EventType.UPDATE_BATTLECODE_FILES, new Runnable() {
 
 			@Override
 			public void run() {
 				singleton.updateBattlecodeFiles(battlecode_server, allowedPackages, disallowedClasses, methodCosts);
 			}
 
-		}).start();
+		});
 	}
 	public abstract void updateBattlecodeFiles(final File battlecode_server, final File allowedPackages, 
 			final File disallowedClasses, final File methodCosts);
@@ -51,14 +68,14 @@ public abstract class AbstractMaster {
 	 * @param maps
 	 */
 	public static void kickoffQueueRun(final Long teamAId, final Long teamBId, final List<Long> seeds, final List<Long> mapIds) {
-		new Thread(new Runnable(){
+		singleton.eventLoop.submit(EventType.QUEUE_RUN, new Runnable() {
 
 			@Override
 			public void run() {
 				singleton.queueRun(teamAId, teamBId, seeds, mapIds);
 			}
 
-		}).start();
+		});
 	}
 	protected abstract void queueRun(final Long teamAId, final Long teamBId, final List<Long> seeds, final List<Long> mapIds);
 	
@@ -67,6 +84,11 @@ public abstract class AbstractMaster {
 	public abstract void dequeueRun(final Long run_id);
 	
 	public abstract void deleteScrimmage(Long scrimId);
+	
+	/**
+	 * Recompute the results of finished matches from their replays in the background
+	 */
+	public abstract void reanalyzeMatches();
 
 	/**
 	 * Send the finished match data to the master
@@ -74,14 +96,14 @@ public abstract class AbstractMaster {
 	 * @param p
 	 */
 	public static void kickoffMatchFinished(final WorkerRepr worker, final Packet p) {
-		new Thread(new Runnable(){
+		singleton.eventLoop.submit(EventType.MATCH_FINISHED, new Runnable() {
 
 			@Override
 			public void run() {
 				singleton.matchFinished(worker, p);
 			}
 
-		}).start();
+		});
 	}
 	public abstract void matchFinished(final WorkerRepr worker, final Packet p);
 
@@ -91,7 +113,7 @@ public abstract class AbstractMaster {
 	 * @param p
 	 */
 	public static void kickoffMatchAnalyzed(final WorkerRepr worker, final Packet p) {
-		new Thread(new Runnable() {
+		singleton.eventLoop.submit(EventType.MATCH_ANALYZED, new Runnable() {
 			
 			@Override
 			public void run() {
@@ -106,55 +128,84 @@ public abstract class AbstractMaster {
 	 * @param worker
 	 */
 	public static void kickoffSendWorkerMatches(final WorkerRepr worker) {
-		new Thread(new Runnable(){
+		singleton.eventLoop.submit(EventType.SEND_WORKER_MATCHES, new Runnable() {
 
 			@Override
 			public void run() {
 				singleton.sendWorkerMatches(worker);
 			}
 
-		}).start();
+		});
 	}
 	protected abstract void sendWorkerMatches(final WorkerRepr worker);
 	
+	/**
+	 * Tell the master to send dependency files to a worker
+	 */
+	public static void kickoffSendWorkerDependencies(final WorkerRepr worker, final NetworkMatch match, final boolean needUpdateBsTester, 
+			final boolean needUpdate, final boolean needMap, final boolean needTeamA, final boolean needTeamB) {
+		singleton.eventLoop.submit(EventType.SEND_WORKER_DEPENDENCIES, new Runnable() {
+
+			@Override
+			public void run() {
+				singleton.sendWorkerDependencies(worker, match, needUpdateBsTester, needUpdate, needMap, needTeamA, needTeamB);
+			}
+
+		});
+	}
 	public abstract void sendWorkerDependencies(final WorkerRepr worker, final NetworkMatch match, final boolean needUpdateBsTester, 
 			final boolean needUpdate, final boolean needMap, final boolean needTeamA, final boolean needTeamB);
 	
 	public static void kickoffUpdateMaps() {
-		new Thread(new Runnable() {
+		singleton.maintenanceLoop.submit(EventType.UPDATE_MAPS, new Runnable() {
 
 			@Override
 			public void run() {
 				singleton.updateMaps();
 			}
 			
-		}).start();
+		});
 	}
 	protected abstract void updateMaps();
 	
+	/**
+	 * Compile the players that don't have a current bundle for the workers
+	 */
+	public static void kickoffCompilePlayers() {
+		singleton.maintenanceLoop.submit(EventType.COMPILE_PLAYERS, new Runnable() {
+
+			@Override
+			public void run() {
+				singleton.compilePlayers();
+			}
+			
+		});
+	}
+	protected abstract void compilePlayers();
+	
 	static void kickoffWorkerDisconnect(final WorkerRepr worker) {
-		new Thread(new Runnable() {
+		singleton.eventLoop.submit(EventType.WORKER_DISCONNECT, new Runnable() {
 
 			@Override
 			public void run() {
 				singleton.workerDisconnect(worker);
 			}
 			
-		}).start();
+		});
 	}
 	abstract void workerDisconnect(WorkerRepr worker);
 	
 	public abstract void restartWorker(int workerId);
 	
 	static void kickoffWorkerConnect(final WorkerRepr worker) {
-		new Thread(new Runnable() {
+		singleton.eventLoop.submit(EventType.WORKER_CONNECT, new Runnable() {
 
 			@Override
 			public void run() {
 				singleton.workerConnect(worker);
 			}
 			
-		}).start();
+		});
 	}
 	abstract void workerConnect(WorkerRepr worker);
 	
@@ -165,13 +216,13 @@ public abstract class AbstractMaster {
 	
 	
 	public static void kickoffAnalyzeScrimmageMatch(final BSScrimmageSet scrim) {
-		new Thread(new Runnable() {
+		singleton.eventLoop.submit(EventType.ANALYZE_SCRIMMAGE, new Runnable() {
 			
 			@Override
 			public void run() {
 				singleton.analyzeScrimmageMatch(scrim);
 			}
-		}).start();
+		});
 	}
 	public abstract void analyzeScrimmageMatch(BSScrimmageSet scrim);
 }
@@ -0,0 +1,186 @@
+package master;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import common.BSUtil;
+
+/**
+ * Deletes the files of deleted runs and scrimmages in the background.  Files are deleted in small
+ * batches with a pause in between so a large run doesn't hog the disk.  The files waiting to be
+ * deleted are written to a journal first, so deletion picks up where it left off after a restart.
+ * Each finished batch is marked done at the end of the journal, and the journal is only rewritten
+ * when it is loaded.
+ * @author stevearc
+ *
+ */
+public class ArtifactCollector implements Runnable {
+	private static Logger _log = Logger.getLogger(ArtifactCollector.class);
+	private static final int BATCH_SIZE = 50;
+	private static final long BATCH_DELAY = 100;
+	// Marks a journal line as a path that has been deleted
+	private static final String DONE = "done\t";
+	private final File journalFile;
+	private final LinkedHashSet<String> pending = new LinkedHashSet<String>();
+	private Thread thread;
+
+	/**
+	 *
+	 * @param journalFile File that stores the paths waiting to be deleted
+	 */
+	public ArtifactCollector(String journalFile) {
+		this.journalFile = new File(journalFile);
+		load();
+	}
+
+	/**
+	 * Start deleting files in the background
+	 */
+	public synchronized void start() {
+		if (thread == null) {
+			thread = new Thread(this, "artifact-collector");
+			thread.start();
+		}
+	}
+
+	/**
+	 * Schedule files to be deleted.  When this returns the files are recorded in the journal.
+	 * @param paths
+	 */
+	public synchronized void delete(Collection<String> paths) {
+		if (paths.isEmpty()) {
+			return;
+		}
+		append(paths, "");
+		pending.addAll(paths);
+		notifyAll();
+	}
+
+	/**
+	 *
+	 * @return Number of files waiting to be deleted
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			List<String> batch = nextBatch();
+			for (String path: batch) {
+				File file = new File(path);
+				if (file.exists() && !file.delete()) {
+					_log.warn("Error deleting file: " + path);
+				}
+			}
+			finishBatch(batch);
+			try {
+				Thread.sleep(BATCH_DELAY);
+			} catch (InterruptedException e) {
+			}
+		}
+	}
+
+	/**
+	 * Block until there are files to delete
+	 * @return Up to BATCH_SIZE paths
+	 */
+	private synchronized List<String> nextBatch() {
+		while (pending.isEmpty()) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+			}
+		}
+		ArrayList<String> batch = new ArrayList<String>(BATCH_SIZE);
+		for (String path: pending) {
+			batch.add(path);
+			if (batch.size() == BATCH_SIZE) {
+				break;
+			}
+		}
+		return batch;
+	}
+
+	private synchronized void finishBatch(List<String> batch) {
+		pending.removeAll(batch);
+		if (pending.isEmpty()) {
+			if (journalFile.exists() && !journalFile.delete()) {
+				_log.warn("Error deleting artifact journal " + journalFile);
+			}
+		} else {
+			append(batch, DONE);
+		}
+	}
+
+	/**
+	 * Add lines to the end of the journal
+	 */
+	private void append(Collection<String> paths, String prefix) {
+		try {
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true), "UTF-8"));
+			try {
+				for (String path: paths) {
+					writer.write(prefix + path);
+					writer.newLine();
+				}
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			_log.error("Error writing artifact journal " + journalFile, e);
+		}
+	}
+
+	/**
+	 * Read the journal, and rewrite it with only the paths that are still pending
+	 */
+	private void load() {
+		File source = journalFile;
+		if (!source.exists()) {
+			// We may have crashed while replacing the journal
+			source = BSUtil.tempFileFor(journalFile);
+			if (!source.exists()) {
+				return;
+			}
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(source), "UTF-8"));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(DONE)) {
+					pending.remove(line.substring(DONE.length()));
+				} else if (line.length() > 0) {
+					pending.add(line);
+				}
+			}
+			reader.close();
+		} catch (IOException e) {
+			_log.warn("Error reading artifact journal " + source, e);
+			return;
+		}
+		try {
+			if (pending.isEmpty()) {
+				source.delete();
+			} else {
+				BSUtil.writeLinesAtomically(journalFile, pending);
+				_log.info("Resuming deletion of " + pending.size() + " files");
+			}
+		} catch (IOException e) {
+			_log.warn("Error compacting artifact journal " + journalFile, e);
+		}
+	}
+}
@@ -1,54 +1,83 @@
 package master;
 
-import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
 import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 
+import master.MasterEventLoop.EventType;
 import model.BSMap;
 import model.BSMatch;
 import model.BSMetadata;
 import model.BSPlayer;
 import model.BSRun;
 import model.BSScrimmageSet;
+import model.DoubleSeriesType;
+import model.IntMatrixSeriesType;
+import model.IntSeriesType;
 import model.MatchResultImpl;
 import model.STATUS;
 import model.ScrimmageMatchResult;
+import model.SeriesType;
 import model.TEAM;
 import networking.Dependencies;
 import networking.DependencyHashes;
 import networking.Packet;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+
+import worker.PlayerBundle;
 
 import common.BSUtil;
 import common.Config;
+import common.FileHashCache;
 import common.HibernateUtil;
 import common.NetworkMatch;
 
 
 /**
  * Handles distribution of load to connected workers
+ * 
+ * State is split into independently locked parts so that slow admin actions don't stall handing
+ * out matches.  runLock guards the current run and dispatching matches, scrimmageLock guards saving 
+ * and deleting scrimmages, and mapsLock guards scanning the maps.  The worker registry is a 
+ * concurrent set and needs no lock.  Locks are always taken in the order scrimmageLock, runLock.
  * @author stevearc
  *
  */
 public class Master extends AbstractMaster {
 	private static Logger _log = Logger.getLogger(Master.class);
 	private NetworkHandler handler;
-	private HashSet<WorkerRepr> workers = new HashSet<WorkerRepr>();
+	private final Object runLock = new Object();
+	private final Object scrimmageLock = new Object();
+	private final Object mapsLock = new Object();
+	private CopyOnWriteArraySet<WorkerRepr> workers = new CopyOnWriteArraySet<WorkerRepr>();
+	private MatchQueue matchQueue = new MatchQueue();
+	private FileHashCache hashCache = new FileHashCache();
+	private ArtifactCollector artifactCollector = new ArtifactCollector(Config.artifactJournalFile);
+	private MatchReanalyzer matchReanalyzer = new MatchReanalyzer();
 	private Date mapsLastModifiedDate;
 	private File pendingBattlecodeServerFile;
 	private File pendingAllowedPackagesFile;
@@ -77,15 +106,38 @@ public class Master extends AbstractMaster {
 	 * @throws IOException 
 	 * @throws NoSuchAlgorithmException 
 	 */
-	public synchronized void start() throws NoSuchAlgorithmException, IOException {
+	public void start() throws NoSuchAlgorithmException, IOException {
+		eventLoop.start();
+		maintenanceLoop.start();
+		transferLoop.start();
+		artifactCollector.start();
 		updateMetadata();
+		matchReanalyzer.start();
+		kickoffCompilePlayers();
+		synchronized (runLock) {
+			matchQueue.loadScrimmages();
+			BSRun currentRun = getCurrentRun();
+			if (currentRun != null) {
+				matchQueue.loadRun(currentRun);
+			}
+		}
+		// Uploads left over from before a restart will never be claimed
+		File uploadDir = new File(Config.uploadDir);
+		FileUtils.deleteDirectory(uploadDir);
+		uploadDir.mkdirs();
 		new Thread(handler).start();
-		startRun();
+		synchronized (runLock) {
+			startRun();
+		}
 		new Thread(new Runnable() {
 			@Override
 			public void run() {
 				while (true) {
 					kickoffUpdateMaps();
+					matchQueue.flush();
+					_log.debug(eventLoop);
+					_log.debug(maintenanceLoop);
+					_log.debug(transferLoop);
 					try {
 						Thread.sleep(10000);
 					} catch (InterruptedException e) {
@@ -103,7 +155,7 @@ public class Master extends AbstractMaster {
 	 * @param mapNames
 	 */
 	@Override
-	public synchronized void queueRun(Long teamAId, Long teamBId, List<Long> seeds, List<Long> mapIds) {
+	public void queueRun(Long teamAId, Long teamBId, List<Long> seeds, List<Long> mapIds) {
 		EntityManager em = HibernateUtil.getEntityManager();
 		BSRun newRun = new BSRun();
 		BSPlayer teamA = em.find(BSPlayer.class, teamAId);
@@ -133,11 +185,13 @@ public class Master extends AbstractMaster {
 		em.close();
 		WebSocketChannelManager.broadcastMsg("index", "INSERT_TABLE_ROW", newRun.getId() + "," + 
 				teamA.getPlayerName() + "," +  teamB.getPlayerName());
-		startRun();
+		synchronized (runLock) {
+			startRun();
+		}
 	}
 
 	@Override
-	public synchronized void analyzeScrimmageMatch(BSScrimmageSet scrim) {
+	public void analyzeScrimmageMatch(BSScrimmageSet scrim) {
 		EntityManager em = HibernateUtil.getEntityManager();
 		em.persist(scrim);
 		em.getTransaction().begin();
@@ -145,21 +199,29 @@ public class Master extends AbstractMaster {
 		em.getTransaction().commit();
 		em.refresh(scrim);
 		em.close();
+		matchQueue.addScrimmage(scrim);
 		WebSocketChannelManager.broadcastMsg("scrimmage", "INSERT_TABLE_ROW", scrim.getId() + "," + scrim.getFileName());
-		startRun();
+		synchronized (runLock) {
+			startRun();
+		}
 	}
 
 	@Override
-	public synchronized void updateBattlecodeFiles(File battlecode_server, File allowedPackages, File disallowedClasses, File methodCosts) {
-		pendingBattlecodeServerFile = battlecode_server;
-		pendingAllowedPackagesFile = allowedPackages;
-		pendingDisallowedClassesFile = disallowedClasses;
-		pendingMethodCostsFile = methodCosts;
-		if (getCurrentRun() == null) {
-			writeBattlecodeFiles();
+	public void updateBattlecodeFiles(File battlecode_server, File allowedPackages, File disallowedClasses, File methodCosts) {
+		synchronized (runLock) {
+			pendingBattlecodeServerFile = battlecode_server;
+			pendingAllowedPackagesFile = allowedPackages;
+			pendingDisallowedClassesFile = disallowedClasses;
+			pendingMethodCostsFile = methodCosts;
+			if (getCurrentRun() == null) {
+				writeBattlecodeFiles();
+			}
 		}
 	}
 
+	/**
+	 * Must hold runLock
+	 */
 	private void writeBattlecodeFiles() {
 		try {
 			if (pendingBattlecodeServerFile != null) {
@@ -168,6 +230,9 @@ public class Master extends AbstractMaster {
 				BSUtil.writeFileData(pendingAllowedPackagesFile, Config.allowedPackagesFile);
 				BSUtil.writeFileData(pendingDisallowedClassesFile, Config.disallowedClassesFile);
 				BSUtil.writeFileData(pendingMethodCostsFile, Config.methodCostsFile);
+				hashCache.invalidateAll();
+				// The players were compiled against the old version
+				kickoffCompilePlayers();
 				pendingBattlecodeServerFile = null;
 				pendingAllowedPackagesFile = null;
 				pendingDisallowedClassesFile = null;
@@ -179,38 +244,43 @@ public class Master extends AbstractMaster {
 	}
 
 	@Override
-	public synchronized void cancelRun(Long runId) {
+	public void cancelRun(Long runId) {
 		EntityManager em = HibernateUtil.getEntityManager();
-		BSRun run = em.find(BSRun.class, runId);
-		if (run != null && run.getStatus() == STATUS.RUNNING) {
-			_log.info("canceling run " + runId);
-			stopCurrentRun(STATUS.CANCELED);
-			startRun();
+		synchronized (runLock) {
+			BSRun run = em.find(BSRun.class, runId);
+			if (run != null && run.getStatus() == STATUS.RUNNING) {
+				_log.info("canceling run " + runId);
+				stopCurrentRun(STATUS.CANCELED);
+				startRun();
+			}
 		}
 		em.close();
 	}
 
 	@Override
-	public synchronized void dequeueRun(Long runId) {
+	public void dequeueRun(Long runId) {
 		EntityManager em = HibernateUtil.getEntityManager();
-		BSRun run = em.find(BSRun.class, runId);
-		if (run != null && run.getStatus() == STATUS.QUEUED) {
-			_log.info("dequeueing run " + runId);
-			em.getTransaction().begin();
-			em.remove(run);
-			em.flush();
-			em.getTransaction().commit();
-			WebSocketChannelManager.broadcastMsg("index", "DELETE_TABLE_ROW", ""+runId);
+		// Don't let startRun pick the run while we're removing it
+		synchronized (runLock) {
+			BSRun run = em.find(BSRun.class, runId);
+			if (run != null && run.getStatus() == STATUS.QUEUED) {
+				_log.info("dequeueing run " + runId);
+				em.getTransaction().begin();
+				em.remove(run);
+				em.flush();
+				em.getTransaction().commit();
+				WebSocketChannelManager.broadcastMsg("index", "DELETE_TABLE_ROW", ""+runId);
+			}
 		}
 		em.close();
 	}
 
 	/**
-	 * Delete run data
+	 * Delete run data.  The files are deleted in the background by the {@link ArtifactCollector}.
 	 * @param runId
 	 */
 	@Override
-	public synchronized void deleteRun(Long runId) {
+	public void deleteRun(Long runId) {
 		EntityManager em = HibernateUtil.getEntityManager();
 		BSRun run = em.find(BSRun.class, runId);
 		// If it's running right now, just cancel it
@@ -219,23 +289,18 @@ public class Master extends AbstractMaster {
 		} else {
 			_log.info("deleting run " + runId);
 			// otherwise, delete it
-			// first delete rms files
+			// first queue the rms files for deletion
+			ArrayList<String> files = new ArrayList<String>();
 			for (BSMatch match: run.getMatches()) {
 				if (match.getStatus() == STATUS.COMPLETE) {
-					File matchFile = new File(Config.matchDir + match.toMatchFileName());
-					if (matchFile.exists()) {
-						matchFile.delete();
-					}
-					File outputFile = new File(Config.matchDir + match.toOutputFileName());
-					if (outputFile.exists()) {
-						outputFile.delete();
-					}
-					File obsFile = new File(Config.matchDir + match.toObsFileName());
-					if (obsFile.exists()) {
-						obsFile.delete();
-					}
+					files.add(Config.matchDir + match.toMatchFileName());
+					files.add(Config.matchDir + match.toOutputFileName());
+					files.add(Config.matchDir + match.toCompressedOutputFileName());
+					files.add(Config.matchDir + match.toObsFileName());
+					files.add(Config.matchDir + match.toCompressedObsFileName());
 				}
 			}
+			artifactCollector.delete(files);
 
 			// Then delete database entries
 			em.getTransaction().begin();
@@ -248,31 +313,30 @@ public class Master extends AbstractMaster {
 	}
 
 	@Override
-	public synchronized void deleteScrimmage(Long scrimId) {
-		EntityManager em = HibernateUtil.getEntityManager();
-		BSScrimmageSet scrim = em.find(BSScrimmageSet.class, scrimId);
-		if (scrim == null)
-			return;
-		// delete rms file
-		File f = new File(scrim.toPath());
-		if (f.exists()) {
-			f.delete();
-		}
-		// delete obs files
-		for (int i = 0; i < scrim.getScrimmageMatches().size(); i++) {
-			File obsFile = new File(Config.scrimmageDir + scrim.toObsFileName(i));
-			if (obsFile.exists()) {
-				obsFile.delete();
+	public void deleteScrimmage(Long scrimId) {
+		synchronized (scrimmageLock) {
+			EntityManager em = HibernateUtil.getEntityManager();
+			BSScrimmageSet scrim = em.find(BSScrimmageSet.class, scrimId);
+			if (scrim == null)
+				return;
+			matchQueue.removeScrimmage(scrimId);
+			// queue the rms and obs files for deletion
+			ArrayList<String> files = new ArrayList<String>();
+			files.add(scrim.toPath());
+			for (int i = 0; i < scrim.getScrimmageMatches().size(); i++) {
+				files.add(Config.scrimmageDir + scrim.toObsFileName(i));
+				files.add(Config.scrimmageDir + scrim.toCompressedObsFileName(i));
 			}
-		}
+			artifactCollector.delete(files);
 
-		// Then delete database entries
-		em.getTransaction().begin();
-		em.remove(scrim);
-		em.flush();
-		em.getTransaction().commit();
-		em.close();
-		WebSocketChannelManager.broadcastMsg("scrimmage", "DELETE_TABLE_ROW", ""+scrim.getId());
+			// Then delete database entries
+			em.getTransaction().begin();
+			em.remove(scrim);
+			em.flush();
+			em.getTransaction().commit();
+			em.close();
+			WebSocketChannelManager.broadcastMsg("scrimmage", "DELETE_TABLE_ROW", ""+scrim.getId());
+		}
 	}
 
 	/**
@@ -280,7 +344,7 @@ public class Master extends AbstractMaster {
 	 * @param worker
 	 */
 	@Override
-	synchronized void workerConnect(WorkerRepr worker) {
+	void workerConnect(WorkerRepr worker) {
 		_log.info("Worker connected: " + worker);
 		workers.add(worker);
 		WebSocketChannelManager.broadcastMsg("connections", "INSERT_TABLE_ROW", worker.toHTML() + "," + worker.getId());
@@ -291,14 +355,19 @@ public class Master extends AbstractMaster {
 	 * @param worker
 	 */
 	@Override
-	synchronized void workerDisconnect(WorkerRepr worker) {
+	void workerDisconnect(WorkerRepr worker) {
 		_log.info("Worker disconnected: " + worker);
 		WebSocketChannelManager.broadcastMsg("connections", "DELETE_TABLE_ROW", ""+worker.getId());
 		workers.remove(worker);
 	}
 	
 	@Override
-	public synchronized void restartWorker(int workerId) {
+	public void reanalyzeMatches() {
+		matchReanalyzer.reanalyze();
+	}
+	
+	@Override
+	public void restartWorker(int workerId) {
 		for (WorkerRepr worker: workers) {
 			if (worker.getId() == workerId) {
 				worker.restart();
@@ -308,29 +377,26 @@ public class Master extends AbstractMaster {
 	}
 
 	@Override
-	public synchronized void matchAnalyzed(WorkerRepr worker, Packet p) {
-		BSScrimmageSet scrim = (BSScrimmageSet) p.get(0);
-		STATUS status = (STATUS) p.get(1);
-		WebSocketChannelManager.broadcastMsg("connections", "REMOVE_MAP", worker.getId() + "," + scrim.getFileName());
-		EntityManager em = HibernateUtil.getEntityManager();
-		BSScrimmageSet dbScrim = em.find(BSScrimmageSet.class, scrim.getId());
-		try {
-			if (dbScrim == null || dbScrim.getStatus() != STATUS.RUNNING) {
+	public void matchAnalyzed(WorkerRepr worker, Packet p) {
+		synchronized (scrimmageLock) {
+			BSScrimmageSet scrim = (BSScrimmageSet) p.get(0);
+			STATUS status = (STATUS) p.get(1);
+			WebSocketChannelManager.broadcastMsg("connections", "REMOVE_MAP", worker.getId() + "," + scrim.getFileName());
+			EntityManager em = HibernateUtil.getEntityManager();
+			if (!matchQueue.isAnalyzing(scrim.getId())) {
 				// Match was already analyzed by another worker or it was canceled
 			} else if (status == STATUS.COMPLETE) {
+				matchQueue.removeScrimmage(scrim.getId());
 				for (ScrimmageMatchResult smr: scrim.getScrimmageMatches()) {
 					smr.setScrimmageSet(scrim);
 					em.persist(smr);
 					em.persist(smr.getaResult());
 					em.persist(smr.getbResult());
 				}
-				// Write the observation files
+				// Move the uploaded observation files into place
 				for (int i = 0; i < scrim.getScrimmageMatches().size(); i++) {
-					File obsFile = new File(Config.scrimmageDir + scrim.toObsFileName(i));
-					obsFile.createNewFile();
-					BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(obsFile)));
-					writer.write(scrim.getScrimmageMatches().get(i).getObservations());
-					writer.close();
+					saveUpload(scrim.getScrimmageMatches().get(i).getObservationsUpload(), 
+							new File(Config.scrimmageDir + scrim.toCompressedObsFileName(i)));
 				}
 				// Commit the db changes
 				em.merge(scrim);
@@ -341,11 +407,15 @@ public class Master extends AbstractMaster {
 				WebSocketChannelManager.broadcastMsg("scrimmage", "FINISH_SCRIMMAGE", scrim.getId() + "," + scrim.getPlayerA() + "," + 
 						scrim.getPlayerB() + "," + scrim.getStatus() + "," + scrim.getWinner());
 			}
-		} catch (IOException e) {
-			_log.error("Error writing observations file", e);
+			em.close();
+			// Clean up the uploads if we didn't use them
+			if (scrim.getScrimmageMatches() != null) {
+				for (ScrimmageMatchResult smr: scrim.getScrimmageMatches()) {
+					discardUpload(smr.getObservationsUpload());
+				}
+			}
 		}
 		sendWorkerMatches(worker);
-		em.close();
 	}
 
 	/**
@@ -354,20 +424,23 @@ public class Master extends AbstractMaster {
 	 * @param p
 	 */
 	@Override
-	public synchronized void matchFinished(WorkerRepr worker, Packet p) {
-		NetworkMatch m = (NetworkMatch) p.get(0);
-		STATUS status = (STATUS) p.get(1);
-		MatchResultImpl result = (MatchResultImpl) p.get(2);
-		byte[] data = (byte[]) p.get(3);
-		byte[] outputData = (byte[]) p.get(4);
-		String observations = (String) p.get(5);
-		WebSocketChannelManager.broadcastMsg("connections", "REMOVE_MAP", worker.getId() + "," + m.toMapString());
-		try {
-			EntityManager em = HibernateUtil.getEntityManager();
-			BSMatch match = em.find(BSMatch.class, m.id);
-			if (match.getStatus() != STATUS.RUNNING || match.getRun().getStatus() != STATUS.RUNNING) {
-				// Match was already finished by another worker
+	public void matchFinished(WorkerRepr worker, Packet p) {
+		synchronized (runLock) {
+			NetworkMatch m = (NetworkMatch) p.get(0);
+			STATUS status = (STATUS) p.get(1);
+			MatchResultImpl result = (MatchResultImpl) p.get(2);
+			String replayUpload = (String) p.get(3);
+			String outputUpload = (String) p.get(4);
+			String observationsUpload = (String) p.get(5);
+			String error = (String) p.get(6);
+			WebSocketChannelManager.broadcastMsg("connections", "REMOVE_MAP", worker.getId() + "," + m.toMapString());
+			if (!matchQueue.isRunning(m.id)) {
+				// Match was already finished by another worker or the run was canceled
 			} else if (status == STATUS.COMPLETE) {
+				// Drop the buffered RUNNING status first, so a flush can't overwrite the COMPLETE one
+				matchQueue.matchCompleted(m.id);
+				EntityManager em = HibernateUtil.getEntityManager();
+				BSMatch match = em.find(BSMatch.class, m.id);
 				em.getTransaction().begin();
 				em.persist(result.getaResult());
 				em.persist(result.getbResult());
@@ -383,187 +456,275 @@ public class Master extends AbstractMaster {
 					run.setbWins(run.getbWins() + 1);
 				}
 				_log.info("Match finished: " + m + " winner: " + result.getWinner());
-				// Write the match file
-				File matchFile = new File(Config.matchDir + match.toMatchFileName());
-				matchFile.createNewFile();
-				FileOutputStream fos = new FileOutputStream(matchFile);
-				fos.write(data);
-				fos.close();
-				// Write the output file
-				File outFile = new File(Config.matchDir + match.toOutputFileName());
-				outFile.createNewFile();
-				fos = new FileOutputStream(outFile);
-				fos.write(outputData);
-				fos.close();
-				// Write the observations file
-				File obsFile = new File(Config.matchDir + match.toObsFileName());
-				obsFile.createNewFile();
-				BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(obsFile)));
-				writer.write(observations);
-				writer.close();
+				// Move the uploaded match and output files into place
+				saveUpload(replayUpload, new File(Config.matchDir + match.toMatchFileName()));
+				saveUpload(outputUpload, new File(Config.matchDir + match.toCompressedOutputFileName()));
+				saveUpload(observationsUpload, new File(Config.matchDir + match.toCompressedObsFileName()));
+				// Remember what the results were computed from so re-analysis can skip this match.  The
+				// worker sends the hash of the replay with the results.
+				result.setAnalyzerVersion(Config.ANALYZER_VERSION);
 				// Commit changes to database
 				em.getTransaction().begin();
+				em.merge(result);
 				em.merge(match);
 				em.merge(run);
 				em.flush();
 				em.getTransaction().commit();
+				em.close();
 
 				// Calculate percent finished and find win status
 				String winRecord = run.getaWins() + "/" + run.getbWins();
-				List<Object[]> resultList = em.createQuery("select match.status, count(*) from BSMatch match where match.run.status = ? group by match.status", Object[].class)
-						.setParameter(1, STATUS.RUNNING)
-						.getResultList();
-				long currentMatches = 0;
-				long totalMatches = 0;
-				for (Object[] valuePair: resultList) {
-					if (valuePair[0] == STATUS.COMPLETE) {
-						currentMatches += (Long) valuePair[1];
-					}
-					totalMatches += (Long) valuePair[1];
-				}
-				String percent = currentMatches*100/totalMatches + "%";
+				String percent = matchQueue.getCompletedMatches()*100/matchQueue.getTotalMatches() + "%";
 				WebSocketChannelManager.broadcastMsg("index", "MATCH_FINISHED", m.run_id + "," + 
 						percent + "," + winRecord);
+			} else if (error != null) {
+				_log.warn("Match " + m + " on worker " + worker + " failed:\n" + error);
 			} else {
 				_log.warn("Match " + m + " on worker " + worker + " failed");
 			}
 
-			Long matchesLeft = em.createQuery("select count(*) from BSMatch match where match.run = ? and match.status != ?", Long.class)
-					.setParameter(1, match.getRun())
-					.setParameter(2, STATUS.COMPLETE)
-					.getSingleResult();
 			// If finished, start next run
-			if (matchesLeft == 0) {
+			if (matchQueue.hasRun() && matchQueue.getMatchesLeft() == 0) {
 				stopCurrentRun(STATUS.COMPLETE);
 				startRun();
 			} else {
 				sendWorkerMatches(worker);
 			}
-			em.close();
-		} catch (IOException e) {
-			_log.error("Error writing match file", e);
+			// Clean up the uploads if we didn't use them
+			discardUpload(replayUpload);
+			discardUpload(outputUpload);
+			discardUpload(observationsUpload);
 		}
 	}
 
 	/**
-	 * Send matches to a worker until they are saturated
+	 * Move a file uploaded by a worker into the match directory
+	 * @param upload The path the worker uploaded the file to
+	 * @param target
+	 */
+	private void saveUpload(String upload, File target) {
+		if (upload == null) {
+			return;
+		}
+		File file = new File(upload);
+		if (!upload.startsWith(Config.uploadDir) || upload.contains("..") || !file.exists()) {
+			_log.error("Invalid upload " + upload);
+			return;
+		}
+		if (target.exists() && !target.delete()) {
+			_log.error("Could not replace " + target);
+			return;
+		}
+		if (!file.renameTo(target)) {
+			_log.error("Could not move " + upload + " to " + target);
+		}
+	}
+
+	private void discardUpload(String upload) {
+		if (upload != null && upload.startsWith(Config.uploadDir) && !upload.contains("..")) {
+			new File(upload).delete();
+		}
+	}
+
+	/**
+	 * Send a worker a batch of matches, one for each of its free cores
 	 * @param worker
 	 */
 	@Override
-	protected synchronized void sendWorkerMatches(WorkerRepr worker) {
-		EntityManager em = HibernateUtil.getEntityManager();
-		String bsTesterHash;
-		String battlecodeServerHash;
-		String allowedPackagesHash;
-		String disallowedClassesHash;
-		String methodCostsHash;
+	protected void sendWorkerMatches(WorkerRepr worker) {
+		synchronized (runLock) {
+			DependencyHashes deps = getDependencyHashes();
+			if (deps == null) {
+				return;
+			}
+
+			int numMatches = worker.getFreeCores();
+			ArrayList<NetworkMatch> batch = new ArrayList<NetworkMatch>();
+			for (int i = 0; i < numMatches; i++) {
+				if (!addWorkerMatch(worker, deps, batch)) {
+					break;
+				}
+			}
+			if (batch.size() == 1) {
+				worker.runMatch(batch.get(0), deps);
+			} else if (batch.size() > 1) {
+				worker.runMatches(batch, deps);
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @return The hashes of the files every worker needs.  Files are only re-hashed when they change.
+	 */
+	private DependencyHashes getDependencyHashes() {
 		try {
-			bsTesterHash = BSUtil.bsHashDependency("bs-tester.jar");
-			battlecodeServerHash = BSUtil.bsHashDependency(Config.battlecodeServerFile);
-			allowedPackagesHash = BSUtil.bsHashDependency(Config.allowedPackagesFile);
-			disallowedClassesHash = BSUtil.bsHashDependency(Config.disallowedClassesFile);
-			methodCostsHash = BSUtil.bsHashDependency(Config.methodCostsFile);
+			return new DependencyHashes(hashCache.bsHashDependency("bs-tester.jar"), 
+					hashCache.bsHashDependency(Config.battlecodeServerFile), 
+					hashCache.bsHashDependency(Config.allowedPackagesFile), 
+					hashCache.bsHashDependency(Config.disallowedClassesFile), 
+					hashCache.bsHashDependency(Config.methodCostsFile));
 		} catch (FileNotFoundException e) {
 			_log.warn(e);
-			return;
 		} catch (NoSuchAlgorithmException e) {
 			_log.error("Cannot find SHA1 algorithm!", e);
-			return;
 		} catch (IOException e) {
 			_log.error("Error hashing battlecode-server.jar or idata", e);
-			return;
 		}
-		DependencyHashes deps = new DependencyHashes(bsTesterHash, battlecodeServerHash, allowedPackagesHash, disallowedClassesHash, methodCostsHash);
+		return null;
+	}
 
-		sendBlock:
-		{
-			// First check queued scrimmage matches
-			List<BSScrimmageSet> queuedScrimmages = em.createQuery("from BSScrimmageSet scrim where scrim.status = ?", BSScrimmageSet.class)
-					.setParameter(1, STATUS.QUEUED)
-					.setMaxResults(1)
-					.getResultList();
-			if (queuedScrimmages.size() == 1) {
-				BSScrimmageSet s = queuedScrimmages.get(0);
-				_log.info("Sending scrimmage match " + s.getFileName() + " to worker " + worker);
-				try {
-					worker.analyzeMatch(s, BSUtil.getFileData(s.toPath()), deps);
-					s.setStatus(STATUS.RUNNING);
-					em.merge(s);
-					WebSocketChannelManager.broadcastMsg("connections", "ADD_MAP", worker.getId() + "," + s.getFileName());
-					WebSocketChannelManager.broadcastMsg("scrimmage", "START_SCRIMMAGE", "" + s.getId());
-					break sendBlock;
-				} catch (IOException e) {
-					_log.warn("Error reading scrimmage match " + s.toPath(), e);
-				}
+	/**
+	 * The player jars are hashed when a match is sent instead of when the run is loaded, because a 
+	 * jar can be replaced in the middle of a run
+	 * @param nm
+	 * @return The match with the hashes of the current player jars
+	 */
+	private NetworkMatch withPlayerHashes(NetworkMatch nm) {
+		try {
+			return nm.withTeamHashes(hashCache.bsHashDependency(Config.teamsDir + nm.team_a + ".jar"), 
+					hashCache.bsHashDependency(Config.teamsDir + nm.team_b + ".jar"));
+		} catch (NoSuchAlgorithmException e) {
+			_log.error("Cannot find SHA1 algorithm!", e);
+		} catch (IOException e) {
+			_log.warn("Error hashing player jars for match " + nm, e);
+		}
+		return nm;
+	}
+
+	/**
+	 * Pick the next piece of work for a worker.  Scrimmages are sent immediately, matches are added
+	 * to the batch.
+	 * @param worker
+	 * @param deps
+	 * @param batch The matches that will be sent to the worker
+	 * @return false if there is nothing left to send
+	 */
+	private boolean addWorkerMatch(WorkerRepr worker, DependencyHashes deps, List<NetworkMatch> batch) {
+		// First check queued scrimmage matches
+		BSScrimmageSet s = matchQueue.nextScrimmage();
+		if (s != null) {
+			_log.info("Sending scrimmage match " + s.getFileName() + " to worker " + worker);
+			try {
+				worker.analyzeMatch(s, BSUtil.getFileData(s.toPath()), deps);
+				WebSocketChannelManager.broadcastMsg("connections", "ADD_MAP", worker.getId() + "," + s.getFileName());
+				WebSocketChannelManager.broadcastMsg("scrimmage", "START_SCRIMMAGE", "" + s.getId());
+				return true;
+			} catch (IOException e) {
+				_log.warn("Error reading scrimmage match " + s.toPath(), e);
+				matchQueue.removeScrimmage(s.getId());
 			}
+		}
 
-			// Then check queued runs
-			List<BSMatch> queuedMatches = em.createQuery("from BSMatch match inner join fetch match.map inner join fetch match.run " +
-					"where match.status = ? and match.run.status = ?", BSMatch.class)
-					.setParameter(1, STATUS.QUEUED)
-					.setParameter(2, STATUS.RUNNING)
-					.setMaxResults(1)
-					.getResultList();
+		// Then check queued runs
+		NetworkMatch nm = matchQueue.nextMatch();
+		if (nm != null) {
+			nm = withPlayerHashes(nm);
+			_log.info("Sending match " + nm + " to worker " + worker);
+			WebSocketChannelManager.broadcastMsg("connections", "ADD_MAP", worker.getId() + "," + nm.toMapString());
+			batch.add(nm);
+			return true;
+		}
 
-			if (queuedMatches.size() == 1) {
-				BSMatch m = queuedMatches.get(0);
-				NetworkMatch nm = m.buildNetworkMatch();
-				_log.info("Sending match " + nm + " to worker " + worker);
-				WebSocketChannelManager.broadcastMsg("connections", "ADD_MAP", worker.getId() + "," + nm.toMapString());
-				worker.runMatch(nm, deps);
-				m.setStatus(STATUS.RUNNING);
-				em.merge(m);
-				break sendBlock;
-			}
-
-			// If we are currently running all necessary maps, add some redundancy by
-			// Sending this worker random maps that other workers are currently running
-			Random r = new Random();
-			List<BSMatch> runningMatches = em.createQuery("from BSMatch match inner join fetch match.map inner join fetch match.run " +
-					"where match.status = ? and match.run.status = ?", BSMatch.class)
-					.setParameter(1, STATUS.RUNNING)
-					.setParameter(2, STATUS.RUNNING)
-					.getResultList();
-			if (!runningMatches.isEmpty() && worker.getRunningMatches().size() < runningMatches.size()) {
-				BSMatch m = null;
-				NetworkMatch nm = null;
-				do {
-					m = runningMatches.get(r.nextInt(runningMatches.size()));
-					nm = m.buildNetworkMatch();
-				} while (worker.getRunningMatches().contains(nm));
-				_log.info("Sending redundant match " + nm + " to worker " + worker);
-				WebSocketChannelManager.broadcastMsg("connections", "ADD_MAP", worker.getId() + "," + nm.toMapString());
-				worker.runMatch(nm, deps);
-				break sendBlock;
-			}
-
-			// Lastly, try sending redundant scrimmage matches
-			List<BSScrimmageSet> runningScrimmages = em.createQuery("from BSScrimmageSet scrim where scrim.status = ?", BSScrimmageSet.class)
-					.setParameter(1, STATUS.RUNNING)
-					.getResultList();
-			while (!runningScrimmages.isEmpty() && worker.getAnalyzingMatches().size() < runningScrimmages.size()) {
-				BSScrimmageSet s;
-				do {
-					s = runningScrimmages.get(r.nextInt(runningScrimmages.size()));
-				} while (worker.getAnalyzingMatches().contains(s));
+		// If we are currently running all necessary maps, add some redundancy by
+		// Sending this worker random maps that other workers are currently running
+		HashSet<NetworkMatch> exclude = new HashSet<NetworkMatch>(worker.getRunningMatches());
+		exclude.addAll(batch);
+		nm = matchQueue.redundantMatch(exclude);
+		if (nm != null) {
+			nm = withPlayerHashes(nm);
+			_log.info("Sending redundant match " + nm + " to worker " + worker);
+			WebSocketChannelManager.broadcastMsg("connections", "ADD_MAP", worker.getId() + "," + nm.toMapString());
+			batch.add(nm);
+			return true;
+		}
+
+		// Lastly, try sending redundant scrimmage matches
+		s = matchQueue.redundantScrimmage(worker.getAnalyzingMatches());
+		if (s != null) {
+			try {
+				worker.analyzeMatch(s, BSUtil.getFileData(s.toPath()), deps);
+				_log.info("Sending redundant scrimmage match " + s.getFileName() + " to worker " + worker);
+				WebSocketChannelManager.broadcastMsg("connections", "ADD_MAP", worker.getId() + "," + s.getFileName());
+				return true;
+			} catch (IOException e) {
+				_log.warn("Error reading scrimmage match " + s.toPath(), e);
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void sendWorkerDependencies(final WorkerRepr worker, final NetworkMatch match, boolean needUpdateBsTester, boolean needUpdate, boolean needMap, boolean needTeamA, boolean needTeamB) {
+		try {
+			if (worker.isLegacy()) {
+				sendLegacyDependencies(worker, match, needUpdateBsTester, needUpdate, needMap, needTeamA, needTeamB);
+				return;
+			}
+		} catch (IOException e) {
+			// Worker disconnected
+			return;
+		}
+		ArrayList<String> files = new ArrayList<String>();
+		if (needUpdateBsTester) {
+			files.add("bs-tester.jar");
+		}
+		if (needUpdate) {
+			files.add(Config.battlecodeServerFile);
+			files.add(Config.allowedPackagesFile);
+			files.add(Config.disallowedClassesFile);
+			files.add(Config.methodCostsFile);
+		}
+		final Dependencies dep;
+		if (match != null) {
+			if (needMap) {
+				files.add(Config.mapsDir + match.map.getMapName() + ".xml");
+			}
+			if (needTeamA) {
+				files.add(Config.teamsDir + match.team_a + ".jar");
+				addPlayerBundle(files, match.team_a);
+			}
+			if (needTeamB) {
+				files.add(Config.teamsDir + match.team_b + ".jar");
+				addPlayerBundle(files, match.team_b);
+			}
+			dep = new Dependencies(files.toArray(new String[files.size()]), match.map.getMapName(), match.team_a, match.team_b);
+		} else {
+			dep = new Dependencies(files.toArray(new String[files.size()]), null, null, null);
+		}
+		_log.info("Sending " + worker + " " + dep);
+		// Stream the files on the transfer loop so we don't hold up the event loop
+		transferLoop.submit(EventType.STREAM_DEPENDENCIES, new Runnable() {
+			@Override
+			public void run() {
 				try {
-					worker.analyzeMatch(s, BSUtil.getFileData(s.toPath()), deps);
-					_log.info("Sending redundant scrimmage match " + s.getFileName() + " to worker " + worker);
-					WebSocketChannelManager.broadcastMsg("connections", "ADD_MAP", worker.getId() + "," + s.getFileName());
-					break sendBlock;
+					worker.streamDependencies(dep);
 				} catch (IOException e) {
-					_log.warn("Error reading scrimmage match " + s.toPath(), e);
+					dependenciesFailed(worker, match, e);
 				}
 			}
+		});
+	}
+
+	/**
+	 * Send the compiled player along with its jar if it is up to date, so the worker doesn't have 
+	 * to compile it
+	 */
+	private void addPlayerBundle(List<String> files, String player) {
+		try {
+			if (PlayerBundle.getKey(hashCache, player).equals(PlayerBundle.readKey(player))) {
+				files.add(PlayerBundle.getFileName(player));
+			}
+		} catch (IOException e) {
+			_log.warn("Error checking compiled player " + player, e);
 		}
-		em.getTransaction().begin();
-		em.flush();
-		em.getTransaction().commit();
-		em.close();
 	}
 
-	@Override
-	public synchronized void sendWorkerDependencies(WorkerRepr worker, NetworkMatch match, boolean needUpdateBsTester, boolean needUpdate, boolean needMap, boolean needTeamA, boolean needTeamB) {
+	/**
+	 * Send the dependencies as one packet to a worker that is too old to receive streamed files.
+	 * This should only happen to tell the worker to update itself.
+	 */
+	private void sendLegacyDependencies(WorkerRepr worker, NetworkMatch match, boolean needUpdateBsTester, boolean needUpdate, boolean needMap, boolean needTeamA, boolean needTeamB) {
 		Dependencies dep;
 		byte[] map = null;
 		byte[] teamA = null;
@@ -597,16 +758,25 @@ public class Master extends AbstractMaster {
 			} else {
 				dep = new Dependencies(bsTester, battlecodeServer, allowedPackages, disallowedClasses, methodCosts, null, map, null, teamA, null, teamB);
 			}
-			_log.info("Sending " + worker + " " + dep);
+			_log.info("Sending legacy " + worker + " " + dep);
 			worker.sendDependencies(dep);
 		} catch (IOException e) {
-			_log.error("Could not read data file", e);
+			dependenciesFailed(worker, match, e);
+		}
+	}
+
+	private void dependenciesFailed(WorkerRepr worker, NetworkMatch match, IOException e) {
+		_log.error("Could not send data file", e);
+		if (match != null) {
 			WebSocketChannelManager.broadcastMsg("connections", "REMOVE_MAP", worker.getId() + "," + match.toMapString());
-			worker.stopAllMatches();
-			sendWorkerMatches(worker);
 		}
+		worker.stopAllMatches();
+		sendWorkerMatches(worker);
 	}
 
+	/**
+	 * Must hold runLock
+	 */
 	private void startRun() {
 		if (getCurrentRun() != null) {
 			// Already running
@@ -631,6 +801,7 @@ public class Master extends AbstractMaster {
 			em.getTransaction().begin();
 			em.flush();
 			em.getTransaction().commit();
+			matchQueue.loadRun(nextRun);
 			WebSocketChannelManager.broadcastMsg("index", "START_RUN", nextRun.getId() + "");
 			for (WorkerRepr c: workers) {
 				sendWorkerMatches(c);
@@ -638,11 +809,7 @@ public class Master extends AbstractMaster {
 		}
 		else // Check for scrimmages to analyze
 		{
-			Long scrimmagesQueued = em.createQuery("select count(*) from BSScrimmageSet scrim where scrim.status = ? or scrim.status = ?", Long.class)
-					.setParameter(1, STATUS.QUEUED)
-					.setParameter(2, STATUS.RUNNING)
-					.getSingleResult();
-			if (scrimmagesQueued > 0) {
+			if (matchQueue.hasScrimmages()) {
 				for (WorkerRepr c: workers) {
 					sendWorkerMatches(c);
 				}
@@ -664,6 +831,9 @@ public class Master extends AbstractMaster {
 		return currentRun;
 	}
 
+	/**
+	 * Must hold runLock
+	 */
 	private void stopCurrentRun(STATUS status) {
 		_log.info("Stopping current run");
 		BSRun currentRun = getCurrentRun();
@@ -684,6 +854,7 @@ public class Master extends AbstractMaster {
 		em.flush();
 		em.getTransaction().commit();
 		em.close();
+		matchQueue.clearRun();
 		WebSocketChannelManager.broadcastMsg("index", "FINISH_RUN", currentRun.getId() + "," + status.toString());
 		WebSocketChannelManager.broadcastMsg("connections", "FINISH_RUN", "");
 		for (WorkerRepr c: workers) {
@@ -696,46 +867,80 @@ public class Master extends AbstractMaster {
 	 * Update the list of available maps
 	 */
 	@Override
-	public synchronized void updateMaps() {
-		File file = new File("maps");
-		if (new Date(file.lastModified()).equals(mapsLastModifiedDate))
-			return;
-		mapsLastModifiedDate = new Date(file.lastModified());
-		File[] mapFiles = file.listFiles(new FilenameFilter() {
-			@Override
-			public boolean accept(File dir, String name) {
-				return name.toLowerCase().endsWith(".xml");
-			}
-		});
-		ArrayList<BSMap> newMaps = new ArrayList<BSMap>();
-		if (mapFiles == null)
-			return;
-		for (File m: mapFiles) {
-			try {
-				newMaps.add(new BSMap(m));
-			} catch (Exception e) {
-				_log.warn("Error parsing map", e);
+	public void updateMaps() {
+		synchronized (mapsLock) {
+			File file = new File("maps");
+			if (new Date(file.lastModified()).equals(mapsLastModifiedDate))
+				return;
+			mapsLastModifiedDate = new Date(file.lastModified());
+			File[] mapFiles = file.listFiles(new FilenameFilter() {
+				@Override
+				public boolean accept(File dir, String name) {
+					return name.toLowerCase().endsWith(".xml");
+				}
+			});
+			ArrayList<BSMap> newMaps = new ArrayList<BSMap>();
+			if (mapFiles == null)
+				return;
+			for (File m: mapFiles) {
+				try {
+					newMaps.add(new BSMap(m));
+				} catch (Exception e) {
+					_log.warn("Error parsing map", e);
+				}
 			}
-		}
 
-		EntityManager em = HibernateUtil.getEntityManager();
+			EntityManager em = HibernateUtil.getEntityManager();
 
-		List<String> mapNames = em.createQuery("select map.mapName from BSMap map", String.class).getResultList();
-		for (BSMap map: newMaps) {
-			if (!mapNames.contains(map.getMapName())) {
-				em.persist(map);
+			List<String> mapNames = em.createQuery("select map.mapName from BSMap map", String.class).getResultList();
+			for (BSMap map: newMaps) {
+				if (!mapNames.contains(map.getMapName())) {
+					em.persist(map);
+				}
 			}
-		}
-		em.getTransaction().begin();
-		em.flush();
-		em.getTransaction().commit();
-		for (BSMap map: newMaps) {
-			if (!mapNames.contains(map.getMapName())) {
-				em.refresh(map);
-				WebSocketChannelManager.broadcastMsg("index", "ADD_MAP", map.getId() + "," + map.getMapName());
+			em.getTransaction().begin();
+			em.flush();
+			em.getTransaction().commit();
+			for (BSMap map: newMaps) {
+				if (!mapNames.contains(map.getMapName())) {
+					em.refresh(map);
+					WebSocketChannelManager.broadcastMsg("index", "ADD_MAP", map.getId() + "," + map.getMapName());
+				}
 			}
+			em.close();
 		}
+	}
+
+	/**
+	 * Compile the players whose bundles are missing or were compiled from an old player jar or 
+	 * battlecode version
+	 */
+	@Override
+	protected void compilePlayers() {
+		EntityManager em = HibernateUtil.getEntityManager();
+		List<String> players = em.createQuery("select player.playerName from BSPlayer player", String.class).getResultList();
 		em.close();
+		for (String player: players) {
+			try {
+				String key = PlayerBundle.getKey(hashCache, player);
+				if (key.equals(PlayerBundle.readKey(player))) {
+					continue;
+				}
+				_log.info("Compiling player " + player + " for the workers");
+				StringBuilder diagnostics = new StringBuilder();
+				if (PlayerBundle.create(player, key, diagnostics)) {
+					if (diagnostics.length() > 0) {
+						_log.info("Compiler output for player " + player + ":\n" + diagnostics);
+					}
+				} else {
+					_log.warn("Player " + player + " did not compile:\n" + diagnostics);
+				}
+			} catch (FileNotFoundException e) {
+				_log.warn("Missing jar for player " + player);
+			} catch (IOException e) {
+				_log.error("Error compiling player " + player, e);
+			}
+		}
 	}
 
 	/**
@@ -773,6 +978,11 @@ public class Master extends AbstractMaster {
 			// in case this is 1.0.4 and not just the first run
 			upgrade_1_0_4(em);
 		}
+		// The result version was added after the metadata, so it may be missing
+		if (meta.getResultVersion() == null || meta.getResultVersion() < Config.RESULT_VERSION) {
+			upgradeTeamMatchResults(em);
+			meta.setResultVersion(Config.RESULT_VERSION);
+		}
 		em.merge(meta);
 		em.getTransaction().begin();
 		em.flush();
@@ -820,6 +1030,93 @@ public class Master extends AbstractMaster {
 		em.getTransaction().commit();
 	}
 
+	/**
+	 * Rewrite match analysis results stored as serialized boxed arrays in the {@link SeriesType} format.
+	 * The old format can still be read, this just saves the space and the cost of reading it.
+	 * @param em
+	 */
+	private static void upgradeTeamMatchResults(EntityManager em) {
+		final String[] columns = {"totalRobots", "robotsByType", "activeRobots", "activeRobotsByType", "totalRobotsBuilt",
+				"robotsBuiltByType", "totalRobotsKilled", "robotsKilledByType", "fluxSpentOnSpawning", "fluxSpentOnMoving",
+				"fluxSpentOnUpkeep", "totalFluxGathered"};
+		final SeriesType intSeries = new IntSeriesType();
+		final SeriesType intMatrixSeries = new IntMatrixSeriesType();
+		final SeriesType doubleSeries = new DoubleSeriesType();
+		final SeriesType[] types = {intSeries, intMatrixSeries, intSeries, intMatrixSeries, intSeries, intMatrixSeries,
+				intSeries, intMatrixSeries, doubleSeries, doubleSeries, doubleSeries, doubleSeries};
+		StringBuilder select = new StringBuilder("select id");
+		StringBuilder update = new StringBuilder("update TeamMatchResult set ");
+		for (int i = 0; i < columns.length; i++) {
+			select.append(", " + columns[i]);
+			update.append((i == 0 ? "" : ", ") + columns[i] + " = ?");
+		}
+		select.append(" from TeamMatchResult");
+		update.append(" where id = ?");
+		final String selectSql = select.toString();
+		final String updateSql = update.toString();
+
+		em.getTransaction().begin();
+		em.unwrap(Session.class).doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				Statement selectStmt = connection.createStatement();
+				PreparedStatement updateStmt = connection.prepareStatement(updateSql);
+				try {
+					ResultSet rs = selectStmt.executeQuery(selectSql);
+					int upgraded = 0;
+					int batched = 0;
+					while (rs.next()) {
+						long id = rs.getLong(1);
+						byte[][] values = new byte[columns.length][];
+						boolean legacy = false;
+						try {
+							for (int i = 0; i < columns.length; i++) {
+								InputStream in = rs.getBinaryStream(i + 2);
+								if (in != null) {
+									values[i] = IOUtils.toByteArray(in);
+									in.close();
+									legacy |= SeriesType.isLegacy(values[i]);
+								}
+							}
+							if (!legacy) {
+								continue;
+							}
+							for (int i = 0; i < columns.length; i++) {
+								if (values[i] == null) {
+									updateStmt.setNull(i + 1, Types.BLOB);
+								} else {
+									byte[] data = types[i].upgrade(values[i]);
+									updateStmt.setBinaryStream(i + 1, new ByteArrayInputStream(data), data.length);
+								}
+							}
+						} catch (IOException e) {
+							_log.warn("Could not upgrade team match result " + id, e);
+							continue;
+						}
+						updateStmt.setLong(columns.length + 1, id);
+						updateStmt.addBatch();
+						upgraded++;
+						if (++batched == 100) {
+							updateStmt.executeBatch();
+							batched = 0;
+						}
+					}
+					if (batched > 0) {
+						updateStmt.executeBatch();
+					}
+					rs.close();
+					if (upgraded > 0) {
+						_log.info("Upgraded " + upgraded + " team match results");
+					}
+				} finally {
+					selectStmt.close();
+					updateStmt.close();
+				}
+			}
+		});
+		em.getTransaction().commit();
+	}
+
 	private static void upgrade_1_0_4(EntityManager em) {
 		updateMapHashes(em);
 	}
@@ -0,0 +1,199 @@
+package master;
+
+import java.util.EnumMap;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the asynchronous calls to the master one at a time on a single thread.  The queue of
+ * waiting events is bounded, so callers block when the master falls behind instead of piling up
+ * threads on the master's lock.
+ * @author stevearc
+ *
+ */
+public class MasterEventLoop implements Runnable {
+	private static Logger _log = Logger.getLogger(MasterEventLoop.class);
+	public static final int DEFAULT_CAPACITY = 1024;
+	private final ArrayBlockingQueue<Event> queue;
+	private final EnumMap<EventType, EventStats> stats = new EnumMap<EventType, EventStats>(EventType.class);
+	private final String name;
+	private Thread thread;
+
+	public enum EventType {
+		UPDATE_BATTLECODE_FILES,
+		QUEUE_RUN,
+		MATCH_FINISHED,
+		MATCH_ANALYZED,
+		SEND_WORKER_MATCHES,
+		SEND_WORKER_DEPENDENCIES,
+		STREAM_DEPENDENCIES,
+		UPDATE_MAPS,
+		WORKER_CONNECT,
+		WORKER_DISCONNECT,
+		ANALYZE_SCRIMMAGE,
+		COMPILE_PLAYERS,
+	}
+
+	public MasterEventLoop(String name) {
+		this(name, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 *
+	 * @param name Name of the thread that runs the events
+	 * @param capacity Maximum number of events that can be waiting
+	 */
+	public MasterEventLoop(String name, int capacity) {
+		this.name = name;
+		queue = new ArrayBlockingQueue<Event>(capacity);
+		for (EventType type: EventType.values()) {
+			stats.put(type, new EventStats());
+		}
+	}
+
+	/**
+	 * Start processing events
+	 */
+	public synchronized void start() {
+		if (thread == null) {
+			thread = new Thread(this, name);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Queue an event.  Blocks if the queue is full.
+	 * @param type
+	 * @param action
+	 */
+	public void submit(EventType type, Runnable action) {
+		Event event = new Event(type, action);
+		// Events queued by an event would deadlock on a full queue, so just run them now
+		if (Thread.currentThread() == thread) {
+			runEvent(event);
+			return;
+		}
+		if (queue.remainingCapacity() == 0) {
+			_log.warn(name + " queue is full, waiting to queue " + type);
+		}
+		try {
+			queue.put(event);
+		} catch (InterruptedException e) {
+			_log.warn("Interrupted while queueing " + type);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			Event event;
+			try {
+				event = queue.take();
+			} catch (InterruptedException e) {
+				continue;
+			}
+			runEvent(event);
+		}
+	}
+
+	private void runEvent(Event event) {
+		long start = System.nanoTime();
+		try {
+			event.action.run();
+		} catch (RuntimeException e) {
+			_log.error("Error handling " + event.type, e);
+		}
+		stats.get(event.type).record(start - event.queued, System.nanoTime() - start);
+	}
+
+	/**
+	 *
+	 * @return Number of events waiting to be run
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 *
+	 * @param type
+	 * @return The latency stats for one type of event
+	 */
+	public EventStats getStats(EventType type) {
+		return stats.get(type);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(name + " queue depth: " + getQueueDepth());
+		for (EventType type: EventType.values()) {
+			EventStats s = stats.get(type);
+			if (s.getCount() > 0) {
+				sb.append("\n  " + type + ": " + s);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static class Event {
+		public final EventType type;
+		public final Runnable action;
+		public final long queued;
+
+		public Event(EventType type, Runnable action) {
+			this.type = type;
+			this.action = action;
+			this.queued = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Counts and latencies of one type of event.  Wait time is the time spent in the queue,
+	 * run time is the time spent handling the event.
+	 * @author stevearc
+	 *
+	 */
+	public static class EventStats {
+		private long count;
+		private long totalWaitNanos;
+		private long maxWaitNanos;
+		private long totalRunNanos;
+		private long maxRunNanos;
+
+		synchronized void record(long waitNanos, long runNanos) {
+			count++;
+			totalWaitNanos += waitNanos;
+			maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+			totalRunNanos += runNanos;
+			maxRunNanos = Math.max(maxRunNanos, runNanos);
+		}
+
+		public synchronized long getCount() {
+			return count;
+		}
+
+		public synchronized double getAvgWaitMillis() {
+			return (count == 0 ? 0 : totalWaitNanos / 1e6 / count);
+		}
+
+		public synchronized double getMaxWaitMillis() {
+			return maxWaitNanos / 1e6;
+		}
+
+		public synchronized double getAvgRunMillis() {
+			return (count == 0 ? 0 : totalRunNanos / 1e6 / count);
+		}
+
+		public synchronized double getMaxRunMillis() {
+			return maxRunNanos / 1e6;
+		}
+
+		@Override
+		public synchronized String toString() {
+			return String.format("%d events, wait avg %.1fms max %.1fms, run avg %.1fms max %.1fms", count,
+					getAvgWaitMillis(), getMaxWaitMillis(), getAvgRunMillis(), getMaxRunMillis());
+		}
+	}
+}
@@ -0,0 +1,280 @@
+package master;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+
+import model.BSMatch;
+import model.BSRun;
+import model.BSScrimmageSet;
+import model.STATUS;
+
+import org.apache.log4j.Logger;
+
+import common.HibernateUtil;
+import common.NetworkMatch;
+
+/**
+ * In-memory queue of the matches and scrimmages waiting to be sent to workers.  It is built
+ * from the DB when a run starts so that handing out a match never has to query the DB.  Status
+ * changes are buffered and written back to the DB in batches.
+ * @author stevearc
+ *
+ */
+public class MatchQueue {
+	private static Logger _log = Logger.getLogger(MatchQueue.class);
+	private static final int FLUSH_BATCH_SIZE = 50;
+	private Random random = new Random();
+	private Long runId;
+	private int totalMatches;
+	private int completedMatches;
+	private LinkedList<NetworkMatch> queuedMatches = new LinkedList<NetworkMatch>();
+	private LinkedHashMap<Long, NetworkMatch> runningMatches = new LinkedHashMap<Long, NetworkMatch>();
+	private LinkedList<BSScrimmageSet> queuedScrimmages = new LinkedList<BSScrimmageSet>();
+	private LinkedHashMap<Long, BSScrimmageSet> runningScrimmages = new LinkedHashMap<Long, BSScrimmageSet>();
+	private HashMap<Long, STATUS> pendingMatchStatus = new HashMap<Long, STATUS>();
+	private HashMap<Long, STATUS> pendingScrimmageStatus = new HashMap<Long, STATUS>();
+
+	/**
+	 * Load all unfinished matches of a run into the queue
+	 * @param run
+	 */
+	public synchronized void loadRun(BSRun run) {
+		clearRun();
+		EntityManager em = HibernateUtil.getEntityManager();
+		List<BSMatch> matches = em.createQuery("from BSMatch match inner join fetch match.map inner join fetch match.run " +
+				"where match.run = ?", BSMatch.class)
+				.setParameter(1, run)
+				.getResultList();
+		em.close();
+		runId = run.getId();
+		totalMatches = matches.size();
+		for (BSMatch m: matches) {
+			if (m.getStatus() == STATUS.COMPLETE) {
+				completedMatches++;
+			} else {
+				// Matches left RUNNING by a previous master are not running on any worker anymore
+				queuedMatches.add(m.buildNetworkMatch());
+			}
+		}
+		_log.info("Loaded run " + runId + " with " + queuedMatches.size() + " of " + totalMatches + " matches remaining");
+	}
+
+	/**
+	 * Load all unfinished scrimmages into the queue
+	 */
+	public synchronized void loadScrimmages() {
+		queuedScrimmages.clear();
+		runningScrimmages.clear();
+		EntityManager em = HibernateUtil.getEntityManager();
+		List<BSScrimmageSet> scrims = em.createQuery("from BSScrimmageSet scrim where scrim.status = ? or scrim.status = ? " +
+				"order by scrim.id asc", BSScrimmageSet.class)
+				.setParameter(1, STATUS.QUEUED)
+				.setParameter(2, STATUS.RUNNING)
+				.getResultList();
+		em.close();
+		queuedScrimmages.addAll(scrims);
+	}
+
+	/**
+	 * Drop the current run from the queue
+	 */
+	public synchronized void clearRun() {
+		runId = null;
+		totalMatches = 0;
+		completedMatches = 0;
+		queuedMatches.clear();
+		runningMatches.clear();
+		pendingMatchStatus.clear();
+	}
+
+	public synchronized boolean hasRun() {
+		return runId != null;
+	}
+
+	/**
+	 *
+	 * @return The next queued match, which is now marked as running.  null if there are none.
+	 */
+	public synchronized NetworkMatch nextMatch() {
+		NetworkMatch nm = queuedMatches.poll();
+		if (nm != null) {
+			runningMatches.put(nm.id, nm);
+			setMatchStatus(nm.id, STATUS.RUNNING);
+		}
+		return nm;
+	}
+
+	/**
+	 *
+	 * @param exclude Matches that should not be picked
+	 * @return A random running match that is not in exclude.  null if there are none.
+	 */
+	public synchronized NetworkMatch redundantMatch(Set<NetworkMatch> exclude) {
+		ArrayList<NetworkMatch> candidates = new ArrayList<NetworkMatch>();
+		for (NetworkMatch nm: runningMatches.values()) {
+			if (!exclude.contains(nm)) {
+				candidates.add(nm);
+			}
+		}
+		if (candidates.isEmpty()) {
+			return null;
+		}
+		return candidates.get(random.nextInt(candidates.size()));
+	}
+
+	public synchronized boolean isRunning(Long matchId) {
+		return runningMatches.containsKey(matchId);
+	}
+
+	/**
+	 * Mark a match as finished.  The caller is responsible for writing the COMPLETE status to the DB.
+	 * @param matchId
+	 */
+	public synchronized void matchCompleted(Long matchId) {
+		if (runningMatches.remove(matchId) != null) {
+			completedMatches++;
+		}
+		pendingMatchStatus.remove(matchId);
+	}
+
+	/**
+	 *
+	 * @return Number of matches in the current run that have not been completed
+	 */
+	public synchronized int getMatchesLeft() {
+		return queuedMatches.size() + runningMatches.size();
+	}
+
+	public synchronized int getTotalMatches() {
+		return totalMatches;
+	}
+
+	public synchronized int getCompletedMatches() {
+		return completedMatches;
+	}
+
+	/**
+	 * Add a newly uploaded scrimmage to the queue
+	 * @param scrim
+	 */
+	public synchronized void addScrimmage(BSScrimmageSet scrim) {
+		queuedScrimmages.add(scrim);
+	}
+
+	/**
+	 *
+	 * @return The next queued scrimmage, which is now marked as running.  null if there are none.
+	 */
+	public synchronized BSScrimmageSet nextScrimmage() {
+		BSScrimmageSet scrim = queuedScrimmages.poll();
+		if (scrim != null) {
+			runningScrimmages.put(scrim.getId(), scrim);
+			setScrimmageStatus(scrim.getId(), STATUS.RUNNING);
+		}
+		return scrim;
+	}
+
+	/**
+	 *
+	 * @param exclude Scrimmages that should not be picked
+	 * @return A random running scrimmage that is not in exclude.  null if there are none.
+	 */
+	public synchronized BSScrimmageSet redundantScrimmage(Set<BSScrimmageSet> exclude) {
+		ArrayList<BSScrimmageSet> candidates = new ArrayList<BSScrimmageSet>();
+		for (BSScrimmageSet scrim: runningScrimmages.values()) {
+			if (!exclude.contains(scrim)) {
+				candidates.add(scrim);
+			}
+		}
+		if (candidates.isEmpty()) {
+			return null;
+		}
+		return candidates.get(random.nextInt(candidates.size()));
+	}
+
+	public synchronized boolean isAnalyzing(Long scrimId) {
+		return runningScrimmages.containsKey(scrimId);
+	}
+
+	public synchronized boolean hasScrimmages() {
+		return !queuedScrimmages.isEmpty() || !runningScrimmages.isEmpty();
+	}
+
+	/**
+	 * Remove a scrimmage from the queue.  The caller is responsible for writing its final status to the DB.
+	 * @param scrimId
+	 */
+	public synchronized void removeScrimmage(Long scrimId) {
+		runningScrimmages.remove(scrimId);
+		for (BSScrimmageSet scrim: queuedScrimmages) {
+			if (scrim.getId().equals(scrimId)) {
+				queuedScrimmages.remove(scrim);
+				break;
+			}
+		}
+		pendingScrimmageStatus.remove(scrimId);
+	}
+
+	private void setMatchStatus(Long matchId, STATUS status) {
+		pendingMatchStatus.put(matchId, status);
+		if (pendingMatchStatus.size() + pendingScrimmageStatus.size() >= FLUSH_BATCH_SIZE) {
+			flush();
+		}
+	}
+
+	private void setScrimmageStatus(Long scrimId, STATUS status) {
+		pendingScrimmageStatus.put(scrimId, status);
+		if (pendingMatchStatus.size() + pendingScrimmageStatus.size() >= FLUSH_BATCH_SIZE) {
+			flush();
+		}
+	}
+
+	/**
+	 * Write all buffered status changes to the DB
+	 */
+	public synchronized void flush() {
+		if (pendingMatchStatus.isEmpty() && pendingScrimmageStatus.isEmpty()) {
+			return;
+		}
+		EntityManager em = HibernateUtil.getEntityManager();
+		em.getTransaction().begin();
+		for (Map.Entry<STATUS, List<Long>> entry: groupByStatus(pendingMatchStatus).entrySet()) {
+			em.createQuery("update BSMatch match set match.status = :status where match.id in (:ids)")
+			.setParameter("status", entry.getKey())
+			.setParameter("ids", entry.getValue())
+			.executeUpdate();
+		}
+		for (Map.Entry<STATUS, List<Long>> entry: groupByStatus(pendingScrimmageStatus).entrySet()) {
+			em.createQuery("update BSScrimmageSet scrim set scrim.status = :status where scrim.id in (:ids)")
+			.setParameter("status", entry.getKey())
+			.setParameter("ids", entry.getValue())
+			.executeUpdate();
+		}
+		em.getTransaction().commit();
+		em.close();
+		pendingMatchStatus.clear();
+		pendingScrimmageStatus.clear();
+	}
+
+	private static HashMap<STATUS, List<Long>> groupByStatus(Map<Long, STATUS> pending) {
+		HashMap<STATUS, List<Long>> grouped = new HashMap<STATUS, List<Long>>();
+		for (Map.Entry<Long, STATUS> entry: pending.entrySet()) {
+			List<Long> ids = grouped.get(entry.getValue());
+			if (ids == null) {
+				ids = new ArrayList<Long>();
+				grouped.put(entry.getValue(), ids);
+			}
+			ids.add(entry.getKey());
+		}
+		return grouped;
+	}
+
+}
@@ -0,0 +1,299 @@
+package master;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.persistence.EntityManager;
+import javax.persistence.NoResultException;
+
+import model.BSMatch;
+import model.BSMetadata;
+import model.MatchResultImpl;
+import model.STATUS;
+
+import org.apache.log4j.Logger;
+
+import worker.GameAnalyzer;
+
+import common.BSUtil;
+import common.Config;
+import common.HibernateUtil;
+
+/**
+ * Recomputes the results of finished matches from their stored replays, so new or changed metrics
+ * show up without running the matches again.  Replays are analyzed in parallel and the results are
+ * written back by a single thread.  A match is skipped when its replay hash and analyzer version
+ * are the same as when its results were computed.
+ *
+ * A pass runs on startup when {@link Config#ANALYZER_VERSION} is newer than the database, and
+ * whenever an admin asks for one.
+ * @author stevearc
+ *
+ */
+public class MatchReanalyzer implements Runnable {
+	private static Logger _log = Logger.getLogger(MatchReanalyzer.class);
+	private static final int BATCH_SIZE = 100;
+	private final int numThreads = Runtime.getRuntime().availableProcessors();
+	private Thread thread;
+	private boolean requested;
+
+	/**
+	 * Start waiting for passes in the background.  Starts a pass if the stored results are from an
+	 * older analyzer.
+	 */
+	public synchronized void start() {
+		if (thread == null) {
+			thread = new Thread(this, "match-reanalyzer");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		Integer version = getAnalyzerVersion();
+		if (version == null || version < Config.ANALYZER_VERSION) {
+			_log.info("Match analysis changed, re-analyzing stored matches");
+			reanalyze();
+		}
+	}
+
+	/**
+	 * Schedule a pass over all finished matches.  Requests made during a pass start one more pass
+	 * after it.
+	 */
+	public synchronized void reanalyze() {
+		requested = true;
+		notifyAll();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			synchronized (this) {
+				while (!requested) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+					}
+				}
+				requested = false;
+			}
+			try {
+				reanalyzeAll();
+			} catch (RuntimeException e) {
+				_log.error("Error re-analyzing matches", e);
+			}
+		}
+	}
+
+	/**
+	 * One id and replay of a finished match
+	 */
+	private static class StoredMatch {
+		final Long resultId;
+		final String replayHash;
+		final Integer analyzerVersion;
+		final String replayFile;
+
+		StoredMatch(Object[] row) {
+			resultId = (Long) row[0];
+			replayHash = (String) row[1];
+			analyzerVersion = (Integer) row[2];
+			replayFile = Config.matchDir + BSMatch.toMatchFileName((Long) row[3], (String) row[4], (Long) row[5]);
+		}
+	}
+
+	/**
+	 * The new results of a match, or null if the old ones are still current
+	 */
+	private static class Reanalysis {
+		final StoredMatch match;
+		final String replayHash;
+		final MatchResultImpl result;
+
+		Reanalysis(StoredMatch match, String replayHash, MatchResultImpl result) {
+			this.match = match;
+			this.replayHash = replayHash;
+			this.result = result;
+		}
+	}
+
+	private void reanalyzeAll() {
+		List<StoredMatch> matches = loadMatches();
+		_log.info("Re-analyzing " + matches.size() + " matches");
+		long start = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			private int count;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "match-reanalyzer-" + count++);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		CompletionService<Reanalysis> completion = new ExecutorCompletionService<Reanalysis>(executor);
+		EntityManager em = HibernateUtil.getEntityManager();
+		int updated = 0;
+		int skipped = 0;
+		int failed = 0;
+		int pending = 0;
+		try {
+			int next = 0;
+			int finished = 0;
+			while (finished < matches.size()) {
+				// Only keep a few matches in flight so finished results don't pile up in memory
+				while (next < matches.size() && pending < 2 * numThreads) {
+					completion.submit(new ReanalyzeTask(matches.get(next++)));
+					pending++;
+				}
+				Future<Reanalysis> future;
+				try {
+					future = completion.take();
+				} catch (InterruptedException e) {
+					continue;
+				}
+				pending--;
+				finished++;
+				Reanalysis reanalysis;
+				try {
+					reanalysis = future.get();
+				} catch (InterruptedException e) {
+					// The future is already done
+					continue;
+				} catch (ExecutionException e) {
+					_log.warn("Error re-analyzing match", e.getCause());
+					failed++;
+					continue;
+				}
+				if (reanalysis == null) {
+					skipped++;
+				} else if (save(em, reanalysis)) {
+					updated++;
+					if (updated % BATCH_SIZE == 0) {
+						commit(em);
+					}
+				}
+			}
+			commit(em);
+		} catch (RuntimeException e) {
+			if (em.getTransaction().isActive()) {
+				em.getTransaction().rollback();
+			}
+			throw e;
+		} finally {
+			executor.shutdownNow();
+			em.close();
+		}
+		if (failed == 0) {
+			setAnalyzerVersion(Config.ANALYZER_VERSION);
+		}
+		_log.info("Re-analyzed matches in " + (System.currentTimeMillis() - start) + "ms: " + updated + " updated, " +
+				skipped + " unchanged, " + failed + " failed");
+	}
+
+	private static class ReanalyzeTask implements Callable<Reanalysis> {
+		private final StoredMatch match;
+
+		ReanalyzeTask(StoredMatch match) {
+			this.match = match;
+		}
+
+		@Override
+		public Reanalysis call() throws Exception {
+			if (!new File(match.replayFile).exists()) {
+				throw new Exception("Missing replay " + match.replayFile);
+			}
+			String hash = BSUtil.SHA1File(match.replayFile);
+			if (hash.equals(match.replayHash) && match.analyzerVersion != null &&
+					match.analyzerVersion == Config.ANALYZER_VERSION) {
+				return null;
+			}
+			GameAnalyzer analyzer = new GameAnalyzer(match.replayFile);
+			try {
+				List<MatchResultImpl> results = analyzer.analyzeMatches();
+				if (results.size() != 1) {
+					throw new Exception("Expected 1 game in " + match.replayFile + " but found " + results.size());
+				}
+				return new Reanalysis(match, hash, results.get(0));
+			} finally {
+				analyzer.close();
+			}
+		}
+	}
+
+	private List<StoredMatch> loadMatches() {
+		EntityManager em = HibernateUtil.getEntityManager();
+		List<Object[]> rows = em.createQuery("select r.id, r.replayHash, r.analyzerVersion, m.run.id, m.map.mapName, " +
+				"m.seed from BSMatch m join m.result r where m.status = ?", Object[].class)
+				.setParameter(1, STATUS.COMPLETE)
+				.getResultList();
+		em.close();
+		List<StoredMatch> matches = new ArrayList<StoredMatch>(rows.size());
+		for (Object[] row: rows) {
+			matches.add(new StoredMatch(row));
+		}
+		return matches;
+	}
+
+	/**
+	 * Replace the team results of a match.  The winner and round count come from the match itself
+	 * and are left alone.
+	 * @return false if the match was deleted in the meantime
+	 */
+	private boolean save(EntityManager em, Reanalysis reanalysis) {
+		MatchResultImpl stored = em.find(MatchResultImpl.class, reanalysis.match.resultId);
+		if (stored == null) {
+			return false;
+		}
+		if (!em.getTransaction().isActive()) {
+			em.getTransaction().begin();
+		}
+		em.persist(reanalysis.result.getaResult());
+		em.persist(reanalysis.result.getbResult());
+		// The old team results are orphans now and get deleted
+		stored.setaResult(reanalysis.result.getaResult());
+		stored.setbResult(reanalysis.result.getbResult());
+		stored.setReplayHash(reanalysis.replayHash);
+		stored.setAnalyzerVersion(Config.ANALYZER_VERSION);
+		return true;
+	}
+
+	private void commit(EntityManager em) {
+		if (em.getTransaction().isActive()) {
+			em.flush();
+			em.getTransaction().commit();
+		}
+		em.clear();
+	}
+
+	private static Integer getAnalyzerVersion() {
+		EntityManager em = HibernateUtil.getEntityManager();
+		try {
+			return em.createQuery("from BSMetadata", BSMetadata.class).getSingleResult().getAnalyzerVersion();
+		} catch (NoResultException e) {
+			return null;
+		} finally {
+			em.close();
+		}
+	}
+
+	private static void setAnalyzerVersion(int version) {
+		EntityManager em = HibernateUtil.getEntityManager();
+		try {
+			BSMetadata meta = em.createQuery("from BSMetadata", BSMetadata.class).getSingleResult();
+			meta.setAnalyzerVersion(version);
+			em.getTransaction().begin();
+			em.flush();
+			em.getTransaction().commit();
+		} finally {
+			em.close();
+		}
+	}
+}
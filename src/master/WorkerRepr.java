@@ -1,8 +1,10 @@
 package master;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.Socket;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import model.BSScrimmageSet;
@@ -15,6 +17,7 @@ import networking.PacketCmd;
 
 import org.apache.log4j.Logger;
 
+import common.Config;
 import common.NetworkMatch;
 
 /**
@@ -28,10 +31,15 @@ public class WorkerRepr implements Controller {
 	private Network net;
 	private HashSet<NetworkMatch> runningMatches;
 	private HashSet<BSScrimmageSet> analyzingMatches;
+	// The number of cores the worker said it has free, less the matches sent to it since.  Workers
+	// that don't advertise their cores are sent one match at a time.
+	private int cores = 1;
+	private int freeCores = 1;
 
 	public WorkerRepr(Socket s, int id) throws IOException {
 		this.id = id;
 		this.net = new Network(this, s);
+		net.setIncomingFileDir(Config.uploadDir);
 		runningMatches = new HashSet<NetworkMatch>();
 		analyzingMatches = new HashSet<BSScrimmageSet>();
 	}
@@ -46,12 +54,25 @@ public class WorkerRepr implements Controller {
 	 */
 	public synchronized void runMatch(NetworkMatch m, DependencyHashes deps) {
 		runningMatches.add(m);
+		useCores(1);
 		Packet p = new Packet(PacketCmd.RUN, new Object[] {m, deps});
 		net.send(p);
 	}
 	
+	/**
+	 * Messages worker telling it to run several Matches at once
+	 * @param matches The Matches to run
+	 */
+	public synchronized void runMatches(List<NetworkMatch> matches, DependencyHashes deps) {
+		runningMatches.addAll(matches);
+		useCores(matches.size());
+		Packet p = new Packet(PacketCmd.RUN_BATCH, new Object[] {matches.toArray(new NetworkMatch[matches.size()]), deps});
+		net.send(p);
+	}
+	
 	public synchronized void analyzeMatch(BSScrimmageSet scrim, byte[] fileData, DependencyHashes deps) {
 		analyzingMatches.add(scrim);
+		useCores(1);
 		Packet p = new Packet(PacketCmd.ANALYZE, new Object[] {scrim, fileData, deps});
 		net.send(p);
 	}
@@ -61,6 +82,28 @@ public class WorkerRepr implements Controller {
 		net.send(p);
 	}
 	
+	/**
+	 * Stream the dependency files to the worker, followed by the Dependencies packet.  This 
+	 * doesn't lock the WorkerRepr, so other packets can be sent while the files are transferring.
+	 * @param dep
+	 * @throws IOException
+	 */
+	public void streamDependencies(Dependencies dep) throws IOException {
+		for (String file: dep.files) {
+			net.sendFile(new File(file), file);
+		}
+		sendDependencies(dep);
+	}
+	
+	/**
+	 * 
+	 * @return true if the worker is running an old version that can't receive streamed files
+	 * @throws IOException
+	 */
+	public boolean isLegacy() throws IOException {
+		return net.isLegacy();
+	}
+	
 	public synchronized void restart() {
 		Packet p = new Packet(PacketCmd.RESTART, new Object[0]);
 		net.send(p);
@@ -73,6 +116,24 @@ public class WorkerRepr implements Controller {
 		Packet p = new Packet(PacketCmd.STOP, new Object[] {});
 		net.send(p);
 		runningMatches.clear();
+		// Stopped matches aren't replied to
+		freeCores = cores;
+	}
+
+	/**
+	 * 
+	 * @return The number of matches the worker can start right now
+	 */
+	public synchronized int getFreeCores() {
+		return freeCores;
+	}
+
+	private void useCores(int n) {
+		freeCores = Math.max(0, freeCores - n);
+	}
+
+	private void freeCore() {
+		freeCores = Math.min(cores, freeCores + 1);
 	}
 
 	/**
@@ -101,15 +162,34 @@ public class WorkerRepr implements Controller {
 		return analyzingMatches;
 	}
 
+	/**
+	 * Hand the packet to the master's event loop.  This must not lock the WorkerRepr while 
+	 * waiting for room in the event queue, since the master may need the lock to empty it.
+	 */
 	@Override
-	public synchronized void addPacket(Packet p) {
+	public void addPacket(Packet p) {
 		switch (p.getCmd()) {
 		case RUN_REPLY:
-			runningMatches.remove((NetworkMatch) p.get(0));
-			AbstractMaster.getMaster().matchFinished(this, p);
+			synchronized (this) {
+				if (runningMatches.remove((NetworkMatch) p.get(0))) {
+					freeCore();
+				}
+			}
+			AbstractMaster.kickoffMatchFinished(this, p);
 			break;
 		case REQUEST_MATCH:
-			AbstractMaster.getMaster().sendWorkerMatches(this);
+			synchronized (this) {
+				freeCores = Math.max(freeCores, 1);
+			}
+			AbstractMaster.kickoffSendWorkerMatches(this);
+			break;
+		case REQUEST_MATCHES:
+			synchronized (this) {
+				// The worker's own count replaces ours, which may be off after failures or restarts
+				freeCores = (Integer) p.get(0);
+				cores = Math.max(cores, freeCores);
+			}
+			AbstractMaster.kickoffSendWorkerMatches(this);
 			break;
 		case REQUEST_DEPENDENCIES:
 			NetworkMatch match = (NetworkMatch) p.get(0);
@@ -118,11 +198,15 @@ public class WorkerRepr implements Controller {
 			boolean needMap = (Boolean) p.get(3);
 			boolean needTeamA = (Boolean) p.get(4);
 			boolean needTeamB = (Boolean) p.get(5);
-			AbstractMaster.getMaster().sendWorkerDependencies(this, match, needUpdateBsTester, needUpdate, needMap, needTeamA, needTeamB);
+			AbstractMaster.kickoffSendWorkerDependencies(this, match, needUpdateBsTester, needUpdate, needMap, needTeamA, needTeamB);
 			break;
 		case ANALYZE_REPLY:
-			analyzingMatches.remove((BSScrimmageSet)p.get(0));
-			AbstractMaster.getMaster().matchAnalyzed(this, p);
+			synchronized (this) {
+				if (analyzingMatches.remove((BSScrimmageSet)p.get(0))) {
+					freeCore();
+				}
+			}
+			AbstractMaster.kickoffMatchAnalyzed(this, p);
 			break;
 		default:
 			_log.warn("Invalid packet command: " + p.getCmd());
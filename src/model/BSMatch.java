@@ -77,15 +77,39 @@ public class BSMatch {
 	}
 	
 	public String toMatchFileName() {
-		return getRun().getId() + getMap().getMapName() + getSeed() + ".rms";
+		return toMatchFileName(getRun().getId(), getMap().getMapName(), getSeed());
+	}
+	
+	/**
+	 * 
+	 * @return Name the replay of a match is stored under, without loading the match
+	 */
+	public static String toMatchFileName(Long runId, String mapName, Long seed) {
+		return runId + mapName + seed + ".rms";
 	}
 	
 	public String toOutputFileName() {
 		return getRun().getId() + getMap().getMapName() + getSeed() + ".out";
 	}
 	
+	/**
+	 * 
+	 * @return Name the output file is stored under.  It is served as {@link #toOutputFileName()}
+	 */
+	public String toCompressedOutputFileName() {
+		return toOutputFileName() + ".gz";
+	}
+	
 	public String toObsFileName() {
 		return getRun().getId() + getMap().getMapName() + getSeed() + "-obs.out";
 	}
+	
+	/**
+	 * 
+	 * @return Name the observations file is stored under.  It is served as {@link #toObsFileName()}
+	 */
+	public String toCompressedObsFileName() {
+		return toObsFileName() + ".gz";
+	}
 
 }
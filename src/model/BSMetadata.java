@@ -8,6 +8,8 @@ public class BSMetadata {
 	private Long id;
 	private String version;
 	private int hashVersion;
+	private Integer resultVersion;
+	private Integer analyzerVersion;
 	
 	@Id
 	public Long getId() {
@@ -21,6 +23,14 @@ public class BSMetadata {
 	public int getHashVersion() {
 		return hashVersion;
 	}
+
+	public Integer getResultVersion() {
+		return resultVersion;
+	}
+
+	public Integer getAnalyzerVersion() {
+		return analyzerVersion;
+	}
 	
 	public void setId(Long id) {
 		this.id = id;
@@ -34,4 +44,12 @@ public class BSMetadata {
 		this.hashVersion = hashVersion;
 	}
 
+	public void setResultVersion(Integer resultVersion) {
+		this.resultVersion = resultVersion;
+	}
+
+	public void setAnalyzerVersion(Integer analyzerVersion) {
+		this.analyzerVersion = analyzerVersion;
+	}
+
 }
@@ -105,6 +105,14 @@ public class BSScrimmageSet implements Serializable{
 		int index = fileName.indexOf(".rms");
 		return fileName.substring(0, index) + "-obs" + scrimNumber + ".out";
 	}
+	
+	/**
+	 * 
+	 * @return Name the observations file is stored under.  It is served as {@link #toObsFileName(int)}
+	 */
+	public String toCompressedObsFileName(int scrimNumber) {
+		return toObsFileName(scrimNumber) + ".gz";
+	}
 
 	@Override
 	public int hashCode() {
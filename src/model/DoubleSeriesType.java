@@ -0,0 +1,41 @@
+package model;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.hibernate.HibernateException;
+
+/**
+ * Hibernate type for a series of flux values stored as a double[]
+ * @author stevearc
+ *
+ */
+public class DoubleSeriesType extends SeriesType {
+
+	@Override
+	public Class<?> returnedClass() {
+		return double[].class;
+	}
+
+	@Override
+	public Object deepCopy(Object value) throws HibernateException {
+		return (value == null ? null : ((double[]) value).clone());
+	}
+
+	@Override
+	protected void write(DataOutputStream out, Object value) throws IOException {
+		SeriesCodec.writeDoubles(out, (double[]) value);
+	}
+
+	@Override
+	protected Object read(DataInputStream in) throws IOException {
+		return SeriesCodec.readDoubles(in);
+	}
+
+	@Override
+	protected Object fromLegacy(Object value) {
+		return SeriesCodec.toDoubles((Double[]) value);
+	}
+
+}
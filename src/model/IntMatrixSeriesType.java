@@ -0,0 +1,49 @@
+package model;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.hibernate.HibernateException;
+
+/**
+ * Hibernate type for one series of counters per robot type stored as an int[][]
+ * @author stevearc
+ *
+ */
+public class IntMatrixSeriesType extends SeriesType {
+
+	@Override
+	public Class<?> returnedClass() {
+		return int[][].class;
+	}
+
+	@Override
+	public Object deepCopy(Object value) throws HibernateException {
+		if (value == null) {
+			return null;
+		}
+		int[][] matrix = (int[][]) value;
+		int[][] copy = new int[matrix.length][];
+		for (int i = 0; i < matrix.length; i++) {
+			copy[i] = (matrix[i] == null ? null : matrix[i].clone());
+		}
+		return copy;
+	}
+
+	@Override
+	protected void write(DataOutputStream out, Object value) throws IOException {
+		SeriesCodec.writeIntMatrix(out, (int[][]) value);
+	}
+
+	@Override
+	protected Object read(DataInputStream in) throws IOException {
+		return SeriesCodec.readIntMatrix(in);
+	}
+
+	@Override
+	protected Object fromLegacy(Object value) {
+		return SeriesCodec.toIntMatrix((Integer[][]) value);
+	}
+
+}
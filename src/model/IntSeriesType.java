@@ -0,0 +1,41 @@
+package model;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.hibernate.HibernateException;
+
+/**
+ * Hibernate type for a series of counters stored as an int[]
+ * @author stevearc
+ *
+ */
+public class IntSeriesType extends SeriesType {
+
+	@Override
+	public Class<?> returnedClass() {
+		return int[].class;
+	}
+
+	@Override
+	public Object deepCopy(Object value) throws HibernateException {
+		return (value == null ? null : ((int[]) value).clone());
+	}
+
+	@Override
+	protected void write(DataOutputStream out, Object value) throws IOException {
+		SeriesCodec.writeInts(out, (int[]) value);
+	}
+
+	@Override
+	protected Object read(DataInputStream in) throws IOException {
+		return SeriesCodec.readInts(in);
+	}
+
+	@Override
+	protected Object fromLegacy(Object value) {
+		return SeriesCodec.toInts((Integer[]) value);
+	}
+
+}
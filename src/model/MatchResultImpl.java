@@ -24,6 +24,8 @@ public class MatchResultImpl implements MatchResult, Serializable {
 	private Long rounds;
 	private TeamMatchResult aResult;
 	private TeamMatchResult bResult;
+	private String replayHash;
+	private Integer analyzerVersion;
 	
 	public static MatchResultImpl constructMockMatchResult() {
 		MatchResultImpl result = new MatchResultImpl();
@@ -64,6 +66,20 @@ public class MatchResultImpl implements MatchResult, Serializable {
 	public Long getRounds() {
 		return rounds;
 	}
+	/**
+	 * 
+	 * @return SHA1 of the replay these results were computed from, or null if unknown
+	 */
+	public String getReplayHash() {
+		return replayHash;
+	}
+	/**
+	 * 
+	 * @return The {@link common.Config#ANALYZER_VERSION} that computed these results, or null if unknown
+	 */
+	public Integer getAnalyzerVersion() {
+		return analyzerVersion;
+	}
 	
 	public void setId(Long id) {
 		this.id = id;
@@ -83,5 +99,11 @@ public class MatchResultImpl implements MatchResult, Serializable {
 	public void setRounds(Long rounds) {
 		this.rounds = rounds;
 	}
+	public void setReplayHash(String replayHash) {
+		this.replayHash = replayHash;
+	}
+	public void setAnalyzerVersion(Integer analyzerVersion) {
+		this.analyzerVersion = analyzerVersion;
+	}
 
 }
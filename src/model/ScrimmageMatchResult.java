@@ -29,7 +29,7 @@ public class ScrimmageMatchResult implements MatchResult, Serializable{
 	private TeamMatchResult aResult;
 	private TeamMatchResult bResult;
 	private String map;
-	private String observations;
+	private String observationsUpload;
 	
 	public ScrimmageMatchResult() {
 		
@@ -78,9 +78,13 @@ public class ScrimmageMatchResult implements MatchResult, Serializable{
 	public String getMap() {
 		return map;
 	}
+	/**
+	 * 
+	 * @return Where the worker uploaded the gzipped observations to on the master
+	 */
 	@Transient
-	public String getObservations() {
-		return observations;
+	public String getObservationsUpload() {
+		return observationsUpload;
 	}
 	
 	public void setId(Long id) {
@@ -104,8 +108,8 @@ public class ScrimmageMatchResult implements MatchResult, Serializable{
 	public void setRounds(Long rounds) {
 		this.rounds = rounds;
 	}
-	public void setObservations(String observations) {
-		this.observations = observations;
+	public void setObservationsUpload(String observationsUpload) {
+		this.observationsUpload = observationsUpload;
 	}
 	
 
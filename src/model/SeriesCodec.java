@@ -0,0 +1,192 @@
+package model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact encoding for the per-round series in a {@link TeamMatchResult}.  Counters change by a
+ * little each round, so they are written as zig-zag encoded deltas from the previous round as
+ * varints.  Flux values are XORed with the previous round, which zeroes the sign, exponent and high
+ * mantissa bits when the value barely changes and the low mantissa bits when the values are round
+ * numbers, and only the bytes in between are written.
+ * @author stevearc
+ *
+ */
+public class SeriesCodec {
+
+	/**
+	 * Write a series of counters.  May be null.
+	 * @param out
+	 * @param values
+	 * @throws IOException
+	 */
+	public static void writeInts(DataOutput out, int[] values) throws IOException {
+		if (values == null) {
+			writeVarInt(out, 0);
+			return;
+		}
+		writeVarInt(out, values.length + 1);
+		int prev = 0;
+		for (int v: values) {
+			int delta = v - prev;
+			writeVarInt(out, (delta << 1) ^ (delta >> 31));
+			prev = v;
+		}
+	}
+
+	public static int[] readInts(DataInput in) throws IOException {
+		int length = readVarInt(in) - 1;
+		if (length < 0) {
+			return null;
+		}
+		int[] values = new int[length];
+		int prev = 0;
+		for (int i = 0; i < length; i++) {
+			int encoded = readVarInt(in);
+			prev += (encoded >>> 1) ^ -(encoded & 1);
+			values[i] = prev;
+		}
+		return values;
+	}
+
+	/**
+	 * Write one series of counters per robot type.  May be null.
+	 * @param out
+	 * @param values
+	 * @throws IOException
+	 */
+	public static void writeIntMatrix(DataOutput out, int[][] values) throws IOException {
+		if (values == null) {
+			writeVarInt(out, 0);
+			return;
+		}
+		writeVarInt(out, values.length + 1);
+		for (int[] row: values) {
+			writeInts(out, row);
+		}
+	}
+
+	public static int[][] readIntMatrix(DataInput in) throws IOException {
+		int length = readVarInt(in) - 1;
+		if (length < 0) {
+			return null;
+		}
+		int[][] values = new int[length][];
+		for (int i = 0; i < length; i++) {
+			values[i] = readInts(in);
+		}
+		return values;
+	}
+
+	/**
+	 * Write a series of flux values.  May be null.
+	 * @param out
+	 * @param values
+	 * @throws IOException
+	 */
+	public static void writeDoubles(DataOutput out, double[] values) throws IOException {
+		if (values == null) {
+			writeVarInt(out, 0);
+			return;
+		}
+		writeVarInt(out, values.length + 1);
+		long prev = 0;
+		for (double v: values) {
+			long bits = Double.doubleToLongBits(v);
+			long xor = bits ^ prev;
+			// Header is the number of leading zero bytes and trailing zero bytes, followed by the
+			// bytes in between
+			int leading = (xor == 0 ? 8 : Long.numberOfLeadingZeros(xor) / 8);
+			int trailing = (xor == 0 ? 0 : Long.numberOfTrailingZeros(xor) / 8);
+			out.writeByte((leading << 4) | trailing);
+			for (int i = 7 - leading; i >= trailing; i--) {
+				out.writeByte((int) (xor >>> (8 * i)));
+			}
+			prev = bits;
+		}
+	}
+
+	public static double[] readDoubles(DataInput in) throws IOException {
+		int length = readVarInt(in) - 1;
+		if (length < 0) {
+			return null;
+		}
+		double[] values = new double[length];
+		long prev = 0;
+		for (int i = 0; i < length; i++) {
+			int header = in.readUnsignedByte();
+			int leading = header >>> 4;
+			int trailing = header & 0xf;
+			if (leading + trailing > 8) {
+				throw new IOException("Malformed flux value");
+			}
+			long xor = 0;
+			for (int j = 7 - leading; j >= trailing; j--) {
+				xor |= (long) in.readUnsignedByte() << (8 * j);
+			}
+			prev ^= xor;
+			values[i] = Double.longBitsToDouble(prev);
+		}
+		return values;
+	}
+
+	/**
+	 * Convert a series stored by older versions.  Missing values become 0.
+	 * @param values
+	 * @return
+	 */
+	public static int[] toInts(Integer[] values) {
+		if (values == null) {
+			return null;
+		}
+		int[] result = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = (values[i] == null ? 0 : values[i]);
+		}
+		return result;
+	}
+
+	public static int[][] toIntMatrix(Integer[][] values) {
+		if (values == null) {
+			return null;
+		}
+		int[][] result = new int[values.length][];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = toInts(values[i]);
+		}
+		return result;
+	}
+
+	public static double[] toDoubles(Double[] values) {
+		if (values == null) {
+			return null;
+		}
+		double[] result = new double[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = (values[i] == null ? 0 : values[i]);
+		}
+		return result;
+	}
+
+	public static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	public static int readVarInt(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+}
@@ -0,0 +1,186 @@
+package model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.usertype.UserType;
+
+/**
+ * Stores a per-round series in a BLOB using {@link SeriesCodec}.  Older versions stored the series
+ * as Java serialized boxed arrays; those are still read and are converted by
+ * {@link #upgrade(byte[])}.
+ * @author stevearc
+ *
+ */
+public abstract class SeriesType implements UserType {
+	private static final int FORMAT_VERSION = 1;
+	private static final int[] SQL_TYPES = {Types.BLOB};
+
+	protected abstract void write(DataOutputStream out, Object value) throws IOException;
+
+	protected abstract Object read(DataInputStream in) throws IOException;
+
+	/**
+	 * Convert the boxed array stored by older versions
+	 */
+	protected abstract Object fromLegacy(Object value);
+
+	/**
+	 *
+	 * @param data
+	 * @return true if the data was stored by an older version
+	 */
+	public static boolean isLegacy(byte[] data) {
+		// Java serialization stream magic
+		return data.length >= 2 && data[0] == (byte) 0xAC && data[1] == (byte) 0xED;
+	}
+
+	/**
+	 *
+	 * @param data A stored series in either format
+	 * @return The series in the current format
+	 * @throws IOException
+	 */
+	public byte[] upgrade(byte[] data) throws IOException {
+		return encode(decode(data));
+	}
+
+	public byte[] encode(Object value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(FORMAT_VERSION);
+		write(out, value);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	public Object decode(byte[] data) throws IOException {
+		if (isLegacy(data)) {
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+			try {
+				return fromLegacy(in.readObject());
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			} finally {
+				in.close();
+			}
+		}
+		DataInputStream in = new DataInputStream(new BytesInputStream(data));
+		int version = in.readUnsignedByte();
+		if (version != FORMAT_VERSION) {
+			throw new IOException("Unknown series format " + version);
+		}
+		return read(in);
+	}
+
+	@Override
+	public int[] sqlTypes() {
+		return SQL_TYPES;
+	}
+
+	@Override
+	public boolean equals(Object x, Object y) throws HibernateException {
+		return Arrays.deepEquals(new Object[] {x}, new Object[] {y});
+	}
+
+	@Override
+	public int hashCode(Object x) throws HibernateException {
+		return Arrays.deepHashCode(new Object[] {x});
+	}
+
+	@Override
+	public Object nullSafeGet(ResultSet rs, String[] names, SessionImplementor session, Object owner) throws HibernateException,
+			SQLException {
+		InputStream in = rs.getBinaryStream(names[0]);
+		if (in == null) {
+			return null;
+		}
+		try {
+			return decode(IOUtils.toByteArray(in));
+		} catch (IOException e) {
+			throw new HibernateException("Could not read series from " + names[0], e);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	@Override
+	public void nullSafeSet(PreparedStatement st, Object value, int index, SessionImplementor session) throws HibernateException,
+			SQLException {
+		if (value == null) {
+			st.setNull(index, Types.BLOB);
+			return;
+		}
+		byte[] data;
+		try {
+			data = encode(value);
+		} catch (IOException e) {
+			throw new HibernateException("Could not write series", e);
+		}
+		st.setBinaryStream(index, new ByteArrayInputStream(data), data.length);
+	}
+
+	@Override
+	public boolean isMutable() {
+		return true;
+	}
+
+	@Override
+	public Serializable disassemble(Object value) throws HibernateException {
+		return (Serializable) deepCopy(value);
+	}
+
+	@Override
+	public Object assemble(Serializable cached, Object owner) throws HibernateException {
+		return deepCopy(cached);
+	}
+
+	@Override
+	public Object replace(Object original, Object target, Object owner) throws HibernateException {
+		return deepCopy(original);
+	}
+
+	/**
+	 * ByteArrayInputStream synchronizes every read, which is most of the cost of decoding a series
+	 * one byte at a time
+	 */
+	private static class BytesInputStream extends InputStream {
+		private final byte[] data;
+		private int pos;
+
+		public BytesInputStream(byte[] data) {
+			this.data = data;
+		}
+
+		@Override
+		public int read() {
+			return (pos < data.length ? data[pos++] & 0xff : -1);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (pos >= data.length) {
+				return -1;
+			}
+			int n = Math.min(len, data.length - pos);
+			System.arraycopy(data, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+	}
+
+}
@@ -6,25 +6,32 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
-import javax.persistence.Lob;
 import javax.persistence.SequenceGenerator;
 
+import org.hibernate.annotations.Type;
+
+/**
+ * Per-round statistics for one team in a match.  The series are stored with {@link SeriesCodec}
+ * instead of as serialized boxed arrays.
+ * @author stevearc
+ *
+ */
 @Entity
 public class TeamMatchResult implements Serializable {
 	private static final long serialVersionUID = 5493198563817908787L;
 	private Long id;
-	private Integer[] totalRobots;
-	private Integer[][] robotsByType;
-	private Integer[] activeRobots;
-	private Integer[][] activeRobotsByType;
-	private Integer[] totalRobotsBuilt;
-	private Integer[][] robotsBuiltByType;
-	private Integer[] totalRobotsKilled;
-	private Integer[][] robotsKilledByType;
-	private Double[] fluxSpentOnSpawning;
-	private Double[] fluxSpentOnMoving;
-	private Double[] fluxSpentOnUpkeep;
-	private Double[] totalFluxGathered;
+	private int[] totalRobots;
+	private int[][] robotsByType;
+	private int[] activeRobots;
+	private int[][] activeRobotsByType;
+	private int[] totalRobotsBuilt;
+	private int[][] robotsBuiltByType;
+	private int[] totalRobotsKilled;
+	private int[][] robotsKilledByType;
+	private double[] fluxSpentOnSpawning;
+	private double[] fluxSpentOnMoving;
+	private double[] fluxSpentOnUpkeep;
+	private double[] totalFluxGathered;
 	
 	
 	public static TeamMatchResult constructTeamMatchResult(long rounds) {
@@ -62,63 +69,63 @@ public class TeamMatchResult implements Serializable {
 		return id;
 	}
 
-	@Lob
-	public Integer[] getTotalRobots() {
+	@Type(type="model.IntSeriesType")
+	public int[] getTotalRobots() {
 		return totalRobots;
 	}
 
-	@Lob
-	public Integer[][] getRobotsByType() {
+	@Type(type="model.IntMatrixSeriesType")
+	public int[][] getRobotsByType() {
 		return robotsByType;
 	}
 
-	@Lob
-	public Integer[] getActiveRobots() {
+	@Type(type="model.IntSeriesType")
+	public int[] getActiveRobots() {
 		return activeRobots;
 	}
 
-	@Lob
-	public Integer[][] getActiveRobotsByType() {
+	@Type(type="model.IntMatrixSeriesType")
+	public int[][] getActiveRobotsByType() {
 		return activeRobotsByType;
 	}
 
-	@Lob
-	public Integer[] getTotalRobotsBuilt() {
+	@Type(type="model.IntSeriesType")
+	public int[] getTotalRobotsBuilt() {
 		return totalRobotsBuilt;
 	}
 
-	@Lob
-	public Integer[][] getRobotsBuiltByType() {
+	@Type(type="model.IntMatrixSeriesType")
+	public int[][] getRobotsBuiltByType() {
 		return robotsBuiltByType;
 	}
 
-	@Lob
-	public Integer[] getTotalRobotsKilled() {
+	@Type(type="model.IntSeriesType")
+	public int[] getTotalRobotsKilled() {
 		return totalRobotsKilled;
 	}
 
-	@Lob
-	public Integer[][] getRobotsKilledByType() {
+	@Type(type="model.IntMatrixSeriesType")
+	public int[][] getRobotsKilledByType() {
 		return robotsKilledByType;
 	}
 
-	@Lob
-	public Double[] getFluxSpentOnSpawning() {
+	@Type(type="model.DoubleSeriesType")
+	public double[] getFluxSpentOnSpawning() {
 		return fluxSpentOnSpawning;
 	}
 
-	@Lob
-	public Double[] getFluxSpentOnMoving() {
+	@Type(type="model.DoubleSeriesType")
+	public double[] getFluxSpentOnMoving() {
 		return fluxSpentOnMoving;
 	}
 
-	@Lob
-	public Double[] getFluxSpentOnUpkeep() {
+	@Type(type="model.DoubleSeriesType")
+	public double[] getFluxSpentOnUpkeep() {
 		return fluxSpentOnUpkeep;
 	}
 
-	@Lob
-	public Double[] getTotalFluxGathered() {
+	@Type(type="model.DoubleSeriesType")
+	public double[] getTotalFluxGathered() {
 		return totalFluxGathered;
 	}
 
@@ -126,60 +133,60 @@ public class TeamMatchResult implements Serializable {
 		this.id = id;
 	}
 
-	public void setTotalRobots(Integer[] totalRobots) {
+	public void setTotalRobots(int[] totalRobots) {
 		this.totalRobots = totalRobots;
 	}
 
 
-	public void setRobotsByType(Integer[][] robotsByType) {
+	public void setRobotsByType(int[][] robotsByType) {
 		this.robotsByType = robotsByType;
 	}
 
 
-	public void setActiveRobots(Integer[] activeRobots) {
+	public void setActiveRobots(int[] activeRobots) {
 		this.activeRobots = activeRobots;
 	}
 
-	public void setActiveRobotsByType(Integer[][] activeRobotsByType) {
+	public void setActiveRobotsByType(int[][] activeRobotsByType) {
 		this.activeRobotsByType = activeRobotsByType;
 	}
 
-	public void setTotalRobotsBuilt(Integer[] totalRobotsBuilt) {
+	public void setTotalRobotsBuilt(int[] totalRobotsBuilt) {
 		this.totalRobotsBuilt = totalRobotsBuilt;
 	}
 
 
-	public void setRobotsBuiltByType(Integer[][] robotsBuiltByType) {
+	public void setRobotsBuiltByType(int[][] robotsBuiltByType) {
 		this.robotsBuiltByType = robotsBuiltByType;
 	}
 
 
-	public void setTotalRobotsKilled(Integer[] totalRobotsKilled) {
+	public void setTotalRobotsKilled(int[] totalRobotsKilled) {
 		this.totalRobotsKilled = totalRobotsKilled;
 	}
 
 
-	public void setRobotsKilledByType(Integer[][] robotsKilledByType) {
+	public void setRobotsKilledByType(int[][] robotsKilledByType) {
 		this.robotsKilledByType = robotsKilledByType;
 	}
 
 
-	public void setFluxSpentOnSpawning(Double[] fluxSpentOnSpawning) {
+	public void setFluxSpentOnSpawning(double[] fluxSpentOnSpawning) {
 		this.fluxSpentOnSpawning = fluxSpentOnSpawning;
 	}
 
 
-	public void setFluxSpentOnMoving(Double[] fluxSpentOnMoving) {
+	public void setFluxSpentOnMoving(double[] fluxSpentOnMoving) {
 		this.fluxSpentOnMoving = fluxSpentOnMoving;
 	}
 
 
-	public void setFluxSpentOnUpkeep(Double[] fluxSpentOnUpkeep) {
+	public void setFluxSpentOnUpkeep(double[] fluxSpentOnUpkeep) {
 		this.fluxSpentOnUpkeep = fluxSpentOnUpkeep;
 	}
 	
 	
-	public void setTotalFluxGathered(Double[] totalFluxGathered) {
+	public void setTotalFluxGathered(double[] totalFluxGathered) {
 		this.totalFluxGathered = totalFluxGathered;
 	}
 
@@ -1,6 +1,7 @@
 package networking;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 public class Dependencies implements Serializable {
 	private static final long serialVersionUID = -2280546354744824747L;
@@ -16,6 +17,8 @@ public class Dependencies implements Serializable {
 	public final byte[] allowedPackages;
 	public final byte[] disallowedClasses;
 	public final byte[] methodCosts;
+	/** Paths of the files that were streamed ahead of this packet */
+	public final String[] files;
 	
 	public Dependencies(byte[] bsTester, byte[] battlecodeServer, byte[] allowedPackages, byte[] disallowedClasses, 
 			byte[] methodCosts, String mapName, byte[] map, String teamAName, byte[] teamA, 
@@ -31,6 +34,29 @@ public class Dependencies implements Serializable {
 		this.teamA = teamA;
 		this.teamBName = teamBName;
 		this.teamB = teamB;
+		this.files = new String[0];
+	}
+	
+	/**
+	 * Dependencies whose files were already sent with {@link Network#sendFile(java.io.File, String)}
+	 * @param files The paths of the streamed files
+	 * @param mapName
+	 * @param teamAName
+	 * @param teamBName
+	 */
+	public Dependencies(String[] files, String mapName, String teamAName, String teamBName) {
+		this.bsTester = null;
+		this.battlecodeServer = null;
+		this.allowedPackages = null;
+		this.disallowedClasses = null;
+		this.methodCosts = null;
+		this.mapName = mapName;
+		this.map = null;
+		this.teamAName = teamAName;
+		this.teamA = null;
+		this.teamBName = teamBName;
+		this.teamB = null;
+		this.files = files;
 	}
 	
 	@Override
@@ -43,7 +69,8 @@ public class Dependencies implements Serializable {
 		(methodCosts == null ? "" : "MethodCosts.txt ") + 
 		(map == null ? "" : mapName + ".xml ") + 
 		(teamA == null ? "" : teamAName + ".jar ") + 
-		(teamB == null ? "" : teamBName + ".jar ");
+		(teamB == null ? "" : teamBName + ".jar ") + 
+		(files == null ? "" : Arrays.toString(files));
 	}
 
 }
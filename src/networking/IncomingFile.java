@@ -0,0 +1,100 @@
+package networking;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A file that is being streamed to us by the remote Network.  The data is written to a temporary
+ * file next to the target, which is moved into place once the whole file has arrived.
+ * @author stevearc
+ *
+ */
+class IncomingFile {
+	private final File target;
+	private final File tmpFile;
+	private final FileOutputStream out;
+	private final long size;
+	private long written;
+
+	/**
+	 *
+	 * @param target Path relative to the working directory
+	 * @param size Number of bytes that will be sent
+	 * @throws IOException
+	 */
+	public IncomingFile(String target, long size) throws IOException {
+		if (new File(target).isAbsolute() || target.contains("..")) {
+			throw new IOException("Refusing to write file outside of working directory: " + target);
+		}
+		this.target = new File(target);
+		this.size = size;
+		File dir = this.target.getAbsoluteFile().getParentFile();
+		if (!dir.exists() && !dir.mkdirs()) {
+			throw new IOException("Could not create directory " + dir);
+		}
+		tmpFile = File.createTempFile(this.target.getName(), ".part", dir);
+		out = new FileOutputStream(tmpFile);
+	}
+
+	/**
+	 * Copy a chunk of the file from the network to disk
+	 * @param in
+	 * @param length Length of the chunk
+	 * @param buffer Scratch space for the copy
+	 * @throws IOException
+	 */
+	public void write(DataInputStream in, int length, byte[] buffer) throws IOException {
+		if (written + length > size) {
+			throw new IOException("Received more data than expected for " + target);
+		}
+		while (length > 0) {
+			int read = in.read(buffer, 0, Math.min(length, buffer.length));
+			if (read < 0) {
+				throw new EOFException();
+			}
+			out.write(buffer, 0, read);
+			length -= read;
+			written += read;
+		}
+	}
+
+	/**
+	 * Move the completed file into place
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		out.close();
+		if (written != size) {
+			tmpFile.delete();
+			throw new IOException("Received " + written + " of " + size + " bytes for " + target);
+		}
+		if (target.exists() && !target.delete()) {
+			tmpFile.delete();
+			throw new IOException("Could not replace " + target);
+		}
+		if (!tmpFile.renameTo(target)) {
+			tmpFile.delete();
+			throw new IOException("Could not move " + tmpFile + " to " + target);
+		}
+	}
+
+	/**
+	 * Throw away the partially received file
+	 */
+	public void discard() {
+		try {
+			out.close();
+		} catch (IOException e) {
+			// Deleting it anyway
+		}
+		tmpFile.delete();
+	}
+
+	@Override
+	public String toString() {
+		return target.getPath();
+	}
+}
@@ -1,27 +1,91 @@
 package networking;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
 
 import org.apache.log4j.Logger;
 
 /**
- * Sends and receives packets to and from one other Network at a remote location
+ * Sends and receives packets to and from one other Network at a remote location.
+ * 
+ * Packets are sent as length-prefixed frames encoded by {@link PacketCodec} over one long-lived
+ * stream.  The connecting side starts the stream with {@link #MAGIC}.  If the accepting side sees 
+ * a java serialization header instead, it is talking to an older version and falls back to 
+ * sending one serialized object per packet so the old worker can still be told to update.
+ * 
+ * Files can be streamed with {@link #sendFile(File, String)}.  They are sent as a series of 
+ * chunk frames (marked by a negative length) that are written straight to disk by the receiver.
  * @author stevearc
  *
  */
 public class Network implements Runnable{
 	protected static Logger _log = Logger.getLogger(Network.class);
+	/** First bytes sent on a framed connection */
+	public static final int MAGIC = 0x42535446;
+	private static final short JAVA_STREAM_MAGIC = (short) 0xACED;
+	private static final int MAX_FRAME_SIZE = 512 * 1024 * 1024;
+	// Markers for file frames.  Packet frames start with a non-negative length.
+	private static final int FILE_BEGIN = -1;
+	private static final int FILE_CHUNK = -2;
+	private static final int FILE_END = -3;
+	private static final int FILE_ABORT = -4;
+	private static final int CHUNK_SIZE = 256 * 1024;
 	protected Socket socket;
 	protected boolean finish = false;
 	protected Controller controller;
+	private DataOutputStream out;
+	private DataInputStream in;
+	// Unbuffered view of the socket for sending file chunks
+	private WritableByteChannel rawOut;
+	private int nextTransferId = 1;
+	private HashMap<Integer, IncomingFile> incomingFiles = new HashMap<Integer, IncomingFile>();
+	private byte[] receiveBuffer = new byte[64 * 1024];
+	// If set, the remote side may only send files into this directory
+	private String incomingFileDir;
+	// null until we know what protocol the other side speaks
+	private Boolean legacy;
 
+	/**
+	 * Wrap a socket that was accepted from a remote Network
+	 * @param controller
+	 * @param socket
+	 * @throws IOException
+	 */
 	public Network (Controller controller, Socket socket) throws IOException{
+		this(controller, socket, false);
+	}
+
+	/**
+	 * 
+	 * @param controller
+	 * @param socket
+	 * @param connecting true if this side opened the connection
+	 * @throws IOException
+	 */
+	public Network (Controller controller, Socket socket, boolean connecting) throws IOException{
 		this.socket = socket;
 		this.controller = controller;
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		rawOut = Channels.newChannel(socket.getOutputStream());
+		if (connecting) {
+			out.writeInt(MAGIC);
+			out.flush();
+			legacy = false;
+		}
 	}
 
 	/**
@@ -33,20 +97,153 @@ public class Network implements Runnable{
 		if (!isConnected())
 			return;
 		try {
-			ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
-			oos.writeObject(packet);
-			oos.flush();
+			if (waitForProtocol()) {
+				synchronized (out) {
+					ObjectOutputStream oos = new ObjectOutputStream(out);
+					oos.writeObject(packet);
+					oos.flush();
+				}
+			} else {
+				byte[] frame = PacketCodec.encode(packet);
+				synchronized (out) {
+					out.writeInt(frame.length);
+					out.write(frame);
+					out.flush();
+				}
+			}
 		} catch (IOException e) {
 			_log.error("Error serializing packet:\n" + packet, e);
 		}
 	}
 
+	/**
+	 * Stream a file to the connected Network, which writes it to disk at target.  The file is 
+	 * sent in chunks so that other packets can be sent in between, and is never loaded into 
+	 * memory.  Packets sent after this returns will arrive after the file is in place.
+	 * @param file
+	 * @param target Path relative to the working directory of the remote side
+	 * @throws IOException If the file could not be sent or the remote side uses the legacy protocol
+	 */
+	public void sendFile(File file, String target) throws IOException {
+		if (waitForProtocol()) {
+			throw new IOException("Remote side cannot receive streamed files");
+		}
+		int id = nextTransferId();
+		FileInputStream fis = new FileInputStream(file);
+		FileChannel channel = fis.getChannel();
+		boolean inChunk = false;
+		try {
+			long size = channel.size();
+			synchronized (out) {
+				out.writeInt(FILE_BEGIN);
+				out.writeInt(id);
+				out.writeUTF(target);
+				out.writeLong(size);
+			}
+			long position = 0;
+			while (position < size) {
+				int length = (int) Math.min(CHUNK_SIZE, size - position);
+				synchronized (out) {
+					out.writeInt(FILE_CHUNK);
+					out.writeInt(id);
+					out.writeInt(length);
+					out.flush();
+					inChunk = true;
+					long sent = 0;
+					while (sent < length) {
+						long n = channel.transferTo(position + sent, length - sent, rawOut);
+						if (n <= 0) {
+							throw new EOFException(file + " was truncated while sending");
+						}
+						sent += n;
+					}
+					inChunk = false;
+				}
+				position += length;
+			}
+			synchronized (out) {
+				out.writeInt(FILE_END);
+				out.writeInt(id);
+				out.flush();
+			}
+		} catch (IOException e) {
+			if (inChunk) {
+				// The remote side is still waiting for the rest of the chunk
+				close();
+			} else {
+				abortFile(id);
+			}
+			throw e;
+		} finally {
+			fis.close();
+		}
+	}
+
+	private void abortFile(int id) {
+		try {
+			synchronized (out) {
+				out.writeInt(FILE_ABORT);
+				out.writeInt(id);
+				out.flush();
+			}
+		} catch (IOException e) {
+			// The connection is already broken
+		}
+	}
+
+	private synchronized int nextTransferId() {
+		return nextTransferId++;
+	}
+
+	/**
+	 * Only allow the remote side to send files into a directory.  A remote side that tries to 
+	 * write anywhere else will be disconnected.
+	 * @param dir
+	 */
+	public void setIncomingFileDir(String dir) {
+		incomingFileDir = dir;
+	}
+
+	/**
+	 * 
+	 * @return true if the remote side uses the legacy protocol
+	 * @throws IOException If the connection was closed before the protocol was known
+	 */
+	public boolean isLegacy() throws IOException {
+		return waitForProtocol();
+	}
+
+	/**
+	 * Block until the protocol of the remote side is known
+	 * @return true if the remote side uses the legacy protocol
+	 */
+	private synchronized boolean waitForProtocol() throws IOException {
+		while (legacy == null) {
+			if (finish) {
+				throw new IOException("Connection closed");
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+			}
+		}
+		return legacy;
+	}
+
+	private synchronized void setLegacy(boolean legacy) {
+		this.legacy = legacy;
+		notifyAll();
+	}
+
 	/**
 	 * Close the current connection.
 	 *
 	 */
 	public void close(){
-		finish = true;
+		synchronized (this) {
+			finish = true;
+			notifyAll();
+		}
 		if (!socket.isClosed()) {
 			try {
 				socket.close();
@@ -64,30 +261,113 @@ public class Network implements Runnable{
 		return !finish;
 	}
 
+	private Packet readPacket() throws IOException, ClassNotFoundException {
+		if (legacy) {
+			ObjectInputStream ois = new ObjectInputStream(in);
+			return (Packet) ois.readObject();
+		}
+		int length = in.readInt();
+		if (length < 0) {
+			readFileFrame(length);
+			return null;
+		}
+		if (length > MAX_FRAME_SIZE) {
+			throw new IOException("Invalid frame length " + length);
+		}
+		byte[] frame = new byte[length];
+		in.readFully(frame);
+		return PacketCodec.decode(frame);
+	}
+
+	private void readFileFrame(int type) throws IOException {
+		int id = in.readInt();
+		IncomingFile file;
+		switch (type) {
+		case FILE_BEGIN:
+			String target = in.readUTF();
+			long size = in.readLong();
+			if (incomingFileDir != null && !target.startsWith(incomingFileDir)) {
+				throw new IOException("Remote side tried to write file " + target);
+			}
+			incomingFiles.put(id, new IncomingFile(target, size));
+			break;
+		case FILE_CHUNK:
+			int length = in.readInt();
+			file = incomingFiles.get(id);
+			if (file == null || length < 0 || length > CHUNK_SIZE) {
+				throw new IOException("Invalid chunk for file transfer " + id);
+			}
+			file.write(in, length, receiveBuffer);
+			break;
+		case FILE_END:
+			file = incomingFiles.remove(id);
+			if (file == null) {
+				throw new IOException("Unknown file transfer " + id);
+			}
+			try {
+				file.finish();
+				_log.info("Received file: " + file);
+			} catch (IOException e) {
+				_log.error("Error receiving file " + file, e);
+			}
+			break;
+		case FILE_ABORT:
+			file = incomingFiles.remove(id);
+			if (file != null) {
+				_log.warn("Remote side aborted sending " + file);
+				file.discard();
+			}
+			break;
+		default:
+			throw new IOException("Unknown frame type " + type);
+		}
+	}
+
 	@Override
 	public void run() {
-		while (!finish){
-			try {
-				ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+		try {
+			if (legacy == null) {
+				// Peek at the first bytes to see if the remote side speaks the framed protocol
+				in.mark(4);
+				if (in.readShort() == JAVA_STREAM_MAGIC) {
+					in.reset();
+					_log.info("Remote side " + this + " is using the legacy protocol");
+					setLegacy(true);
+				} else {
+					in.reset();
+					if (in.readInt() != MAGIC) {
+						throw new IOException("Unknown protocol");
+					}
+					setLegacy(false);
+				}
+			}
+			while (!finish){
 				Packet packet;
 				try {
-					packet = (Packet) ois.readObject();
+					packet = readPacket();
 				} catch (ClassNotFoundException e) {
 					_log.warn("Could not find class during packet deserialization", e);
 					return;
 				}
 
-				controller.addPacket(packet);
-			} 
-			catch (EOFException e) {
-				break;
+				if (packet != null) {
+					controller.addPacket(packet);
+				}
 			}
-			catch (IOException e){
+		}
+		catch (EOFException e) {
+			// Connection closed
+		}
+		catch (IOException e){
+			if (!finish) {
 				_log.error("Error running network", e);
-				break;
 			}
 		}
 		close();
+		for (IncomingFile file: incomingFiles.values()) {
+			file.discard();
+		}
+		incomingFiles.clear();
 		controller.onDisconnect();
 	}
 	
@@ -27,6 +27,10 @@ public class Packet implements Serializable {
 		return args[index];
 	}
 	
+	public int size() {
+		return args.length;
+	}
+	
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
@@ -12,6 +12,7 @@ public enum PacketCmd {
 	ANALYZE, // Tell a worker to analyze a scrimmage match
 	DEPENDENCIES, // Response with up-to-date dependency files
 	RESTART, // Tell a worker to restart
+	RUN_BATCH, // Sends data for running several matches at once
 	
 	// Worker -> Master
 	REQUEST_MATCH, // Requests that the master send the worker a match
@@ -19,4 +20,5 @@ public enum PacketCmd {
 	REQUEST_DEPENDENCIES, // Requests files from the master
 	ANALYZE_REPLY, // The response with the analyzed scrimmage match
 	INIT, // DEPRECATED
+	REQUEST_MATCHES, // Requests that the master send the worker a match for each of its free cores
 }
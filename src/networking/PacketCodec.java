@@ -0,0 +1,366 @@
+package networking;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import model.BSMap;
+import model.MatchResult.WIN_CONDITION;
+import model.MatchResultImpl;
+import model.STATUS;
+import model.SeriesCodec;
+import model.TEAM;
+import model.TeamMatchResult;
+
+import common.NetworkMatch;
+
+/**
+ * Compact binary encoding of Packets.  The common argument types are written by hand and
+ * anything else falls back to java serialization.
+ * @author stevearc
+ *
+ */
+public class PacketCodec {
+	// Type tags for packet arguments
+	private static final byte NULL = 0;
+	private static final byte BOOLEAN = 1;
+	private static final byte INT = 2;
+	private static final byte LONG = 3;
+	private static final byte DOUBLE = 4;
+	private static final byte STRING = 5;
+	private static final byte BYTES = 6;
+	private static final byte STATUS_ENUM = 7;
+	private static final byte NETWORK_MATCH = 8;
+	private static final byte NETWORK_MATCH_ARRAY = 9;
+	private static final byte DEPENDENCY_HASHES = 10;
+	private static final byte MATCH_RESULT = 11;
+	private static final byte SERIALIZED = 12;
+
+	/**
+	 *
+	 * @param packet
+	 * @return The encoded packet
+	 * @throws IOException
+	 */
+	public static byte[] encode(Packet packet) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Output out = new Output(bytes);
+		writeString(out, packet.getCmd().name());
+		out.writeInt(packet.size());
+		for (int i = 0; i < packet.size(); i++) {
+			writeValue(out, packet.get(i));
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 *
+	 * @param data An encoded packet
+	 * @return The decoded packet
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static Packet decode(byte[] data) throws IOException, ClassNotFoundException {
+		Input in = new Input(new ByteArrayInputStream(data));
+		PacketCmd cmd;
+		try {
+			cmd = PacketCmd.valueOf(readString(in));
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Unknown packet command", e);
+		}
+		Object[] args = new Object[in.readInt()];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = readValue(in);
+		}
+		return new Packet(cmd, args);
+	}
+
+	private static void writeValue(Output out, Object o) throws IOException {
+		if (o == null) {
+			out.writeByte(NULL);
+		} else if (o instanceof Boolean) {
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) o);
+		} else if (o instanceof Integer) {
+			out.writeByte(INT);
+			out.writeInt((Integer) o);
+		} else if (o instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) o);
+		} else if (o instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) o);
+		} else if (o instanceof String) {
+			out.writeByte(STRING);
+			writeString(out, (String) o);
+		} else if (o instanceof byte[]) {
+			out.writeByte(BYTES);
+			writeBytes(out, (byte[]) o);
+		} else if (o instanceof STATUS) {
+			out.writeByte(STATUS_ENUM);
+			writeString(out, ((STATUS) o).name());
+		} else if (o instanceof NetworkMatch) {
+			out.writeByte(NETWORK_MATCH);
+			writeNetworkMatch(out, (NetworkMatch) o);
+		} else if (o instanceof NetworkMatch[]) {
+			out.writeByte(NETWORK_MATCH_ARRAY);
+			NetworkMatch[] matches = (NetworkMatch[]) o;
+			out.writeInt(matches.length);
+			for (NetworkMatch m: matches) {
+				writeNetworkMatch(out, m);
+			}
+		} else if (o instanceof DependencyHashes) {
+			out.writeByte(DEPENDENCY_HASHES);
+			DependencyHashes deps = (DependencyHashes) o;
+			writeString(out, deps.bsTesterHash);
+			writeString(out, deps.battlecodeServerHash);
+			writeString(out, deps.allowedPackagesHash);
+			writeString(out, deps.disallowedClassesHash);
+			writeString(out, deps.methodCostsHash);
+		} else if (o instanceof MatchResultImpl) {
+			out.writeByte(MATCH_RESULT);
+			writeMatchResult(out, (MatchResultImpl) o);
+		} else if (o instanceof Serializable) {
+			out.writeByte(SERIALIZED);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bytes);
+			oos.writeObject(o);
+			oos.close();
+			writeBytes(out, bytes.toByteArray());
+		} else {
+			throw new IOException("Cannot encode " + o.getClass().getName());
+		}
+	}
+
+	private static Object readValue(Input in) throws IOException, ClassNotFoundException {
+		byte type = in.readByte();
+		switch (type) {
+		case NULL:
+			return null;
+		case BOOLEAN:
+			return in.readBoolean();
+		case INT:
+			return in.readInt();
+		case LONG:
+			return in.readLong();
+		case DOUBLE:
+			return in.readDouble();
+		case STRING:
+			return readString(in);
+		case BYTES:
+			return readBytes(in);
+		case STATUS_ENUM:
+			return STATUS.valueOf(readString(in));
+		case NETWORK_MATCH:
+			return readNetworkMatch(in);
+		case NETWORK_MATCH_ARRAY:
+			NetworkMatch[] matches = new NetworkMatch[in.readInt()];
+			for (int i = 0; i < matches.length; i++) {
+				matches[i] = readNetworkMatch(in);
+			}
+			return matches;
+		case DEPENDENCY_HASHES:
+			return new DependencyHashes(readString(in), readString(in), readString(in), readString(in), readString(in));
+		case MATCH_RESULT:
+			return readMatchResult(in);
+		case SERIALIZED:
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)));
+			Object o = ois.readObject();
+			ois.close();
+			return o;
+		default:
+			throw new IOException("Unknown type tag " + type);
+		}
+	}
+
+	private static void writeNetworkMatch(Output out, NetworkMatch m) throws IOException {
+		writeLong(out, m.run_id);
+		writeLong(out, m.id);
+		writeString(out, m.team_a);
+		writeString(out, m.team_b);
+		out.writeBoolean(m.map != null);
+		if (m.map != null) {
+			writeLong(out, m.map.getId());
+			writeString(out, m.map.getMapName());
+			writeLong(out, m.map.getHeight());
+			writeLong(out, m.map.getWidth());
+			writeLong(out, m.map.getRounds());
+			writeString(out, m.map.getHash());
+		}
+		writeLong(out, m.seed);
+		writeString(out, m.team_a_hash);
+		writeString(out, m.team_b_hash);
+	}
+
+	private static NetworkMatch readNetworkMatch(Input in) throws IOException {
+		Long runId = readLong(in);
+		Long id = readLong(in);
+		String teamA = readString(in);
+		String teamB = readString(in);
+		BSMap map = null;
+		if (in.readBoolean()) {
+			map = new BSMap();
+			map.setId(readLong(in));
+			map.setMapName(readString(in));
+			map.setHeight(readLong(in));
+			map.setWidth(readLong(in));
+			map.setRounds(readLong(in));
+			map.setHash(readString(in));
+		}
+		Long seed = readLong(in);
+		String teamAHash = readString(in);
+		String teamBHash = readString(in);
+		return new NetworkMatch(runId, id, teamA, teamB, map, seed, teamAHash, teamBHash);
+	}
+
+	private static void writeMatchResult(Output out, MatchResultImpl result) throws IOException {
+		writeLong(out, result.getId());
+		writeString(out, result.getWinner() == null ? null : result.getWinner().name());
+		writeString(out, result.getWinCondition() == null ? null : result.getWinCondition().name());
+		writeLong(out, result.getRounds());
+		writeTeamMatchResult(out, result.getaResult());
+		writeTeamMatchResult(out, result.getbResult());
+	}
+
+	private static MatchResultImpl readMatchResult(Input in) throws IOException {
+		MatchResultImpl result = new MatchResultImpl();
+		result.setId(readLong(in));
+		String winner = readString(in);
+		result.setWinner(winner == null ? null : TEAM.valueOf(winner));
+		String winCondition = readString(in);
+		result.setWinCondition(winCondition == null ? null : WIN_CONDITION.valueOf(winCondition));
+		result.setRounds(readLong(in));
+		result.setaResult(readTeamMatchResult(in));
+		result.setbResult(readTeamMatchResult(in));
+		return result;
+	}
+
+	private static void writeTeamMatchResult(Output out, TeamMatchResult tmr) throws IOException {
+		out.writeBoolean(tmr != null);
+		if (tmr == null) {
+			return;
+		}
+		writeLong(out, tmr.getId());
+		SeriesCodec.writeInts(out, tmr.getTotalRobots());
+		SeriesCodec.writeIntMatrix(out, tmr.getRobotsByType());
+		SeriesCodec.writeInts(out, tmr.getActiveRobots());
+		SeriesCodec.writeIntMatrix(out, tmr.getActiveRobotsByType());
+		SeriesCodec.writeInts(out, tmr.getTotalRobotsBuilt());
+		SeriesCodec.writeIntMatrix(out, tmr.getRobotsBuiltByType());
+		SeriesCodec.writeInts(out, tmr.getTotalRobotsKilled());
+		SeriesCodec.writeIntMatrix(out, tmr.getRobotsKilledByType());
+		SeriesCodec.writeDoubles(out, tmr.getFluxSpentOnSpawning());
+		SeriesCodec.writeDoubles(out, tmr.getFluxSpentOnMoving());
+		SeriesCodec.writeDoubles(out, tmr.getFluxSpentOnUpkeep());
+		SeriesCodec.writeDoubles(out, tmr.getTotalFluxGathered());
+	}
+
+	private static TeamMatchResult readTeamMatchResult(Input in) throws IOException {
+		if (!in.readBoolean()) {
+			return null;
+		}
+		TeamMatchResult tmr = new TeamMatchResult();
+		tmr.setId(readLong(in));
+		tmr.setTotalRobots(SeriesCodec.readInts(in));
+		tmr.setRobotsByType(SeriesCodec.readIntMatrix(in));
+		tmr.setActiveRobots(SeriesCodec.readInts(in));
+		tmr.setActiveRobotsByType(SeriesCodec.readIntMatrix(in));
+		tmr.setTotalRobotsBuilt(SeriesCodec.readInts(in));
+		tmr.setRobotsBuiltByType(SeriesCodec.readIntMatrix(in));
+		tmr.setTotalRobotsKilled(SeriesCodec.readInts(in));
+		tmr.setRobotsKilledByType(SeriesCodec.readIntMatrix(in));
+		tmr.setFluxSpentOnSpawning(SeriesCodec.readDoubles(in));
+		tmr.setFluxSpentOnMoving(SeriesCodec.readDoubles(in));
+		tmr.setFluxSpentOnUpkeep(SeriesCodec.readDoubles(in));
+		tmr.setTotalFluxGathered(SeriesCodec.readDoubles(in));
+		return tmr;
+	}
+
+	private static void writeLong(Output out, Long value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeLong(value);
+		}
+	}
+
+	private static Long readLong(Input in) throws IOException {
+		return in.readBoolean() ? in.readLong() : null;
+	}
+
+	// writeUTF is limited to 64k, which observation logs can easily exceed.  Strings that
+	// already appeared in the packet (team names, hashes) are written as an index instead.
+	private static void writeString(Output out, String s) throws IOException {
+		if (s == null) {
+			SeriesCodec.writeVarInt(out, 0);
+			return;
+		}
+		Integer index = out.strings.get(s);
+		if (index != null) {
+			SeriesCodec.writeVarInt(out, index + 2);
+			return;
+		}
+		out.strings.put(s, out.strings.size());
+		SeriesCodec.writeVarInt(out, 1);
+		writeBytes(out, s.getBytes("UTF-8"));
+	}
+
+	private static String readString(Input in) throws IOException {
+		int tag = SeriesCodec.readVarInt(in);
+		if (tag == 0) {
+			return null;
+		} else if (tag == 1) {
+			String s = new String(readBytes(in), "UTF-8");
+			in.strings.add(s);
+			return s;
+		}
+		if (tag - 2 >= in.strings.size()) {
+			throw new IOException("Bad string reference " + (tag - 2));
+		}
+		return in.strings.get(tag - 2);
+	}
+
+	private static void writeBytes(Output out, byte[] data) throws IOException {
+		if (data == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(data.length);
+		out.write(data);
+	}
+
+	private static byte[] readBytes(Input in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] data = new byte[length];
+		in.readFully(data);
+		return data;
+	}
+
+	private static class Output extends DataOutputStream {
+		public final HashMap<String, Integer> strings = new HashMap<String, Integer>();
+
+		public Output(OutputStream out) {
+			super(out);
+		}
+	}
+
+	private static class Input extends DataInputStream {
+		public final ArrayList<String> strings = new ArrayList<String>();
+
+		public Input(InputStream in) {
+			super(in);
+		}
+	}
+}
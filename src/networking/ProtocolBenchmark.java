@@ -0,0 +1,147 @@
+package networking;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import model.BSMap;
+import model.MatchResult.WIN_CONDITION;
+import model.MatchResultImpl;
+import model.STATUS;
+import model.TEAM;
+import model.TeamMatchResult;
+
+import common.NetworkMatch;
+
+/**
+ * Compares the size and encoding speed of packets sent with java serialization (one
+ * ObjectOutputStream per packet, the way Network used to send them) and with {@link PacketCodec}.
+ *
+ * Run with: java -cp bs-tester.jar:lib/* networking.ProtocolBenchmark [iterations]
+ * @author stevearc
+ *
+ */
+public class ProtocolBenchmark {
+	private static final int NUM_ROUNDS = 3000;
+	private static final int NUM_ROBOT_TYPES = 6;
+
+	public static void main(String[] args) throws Exception {
+		int iterations = (args.length > 0 ? Integer.parseInt(args[0]) : 2000);
+		Packet[] packets = {
+				new Packet(PacketCmd.REQUEST_MATCHES, new Object[] {8}),
+				new Packet(PacketCmd.RUN, new Object[] {buildMatch(1), buildHashes()}),
+				new Packet(PacketCmd.RUN_BATCH, new Object[] {buildBatch(8), buildHashes()}),
+				new Packet(PacketCmd.RUN_REPLY, new Object[] {buildMatch(1), STATUS.COMPLETE, buildResult(),
+						new byte[0], new byte[0], ""}),
+		};
+		System.out.println(String.format("%-16s %14s %14s %14s %14s", "packet", "java bytes", "framed bytes",
+				"java pkt/s", "framed pkt/s"));
+		for (Packet p: packets) {
+			int javaBytes = javaSerialize(p).length;
+			int framedBytes = PacketCodec.encode(p).length + 4;
+			// Warm up the JIT before timing
+			for (int i = 0; i < iterations / 10; i++) {
+				javaSerialize(p);
+				PacketCodec.decode(PacketCodec.encode(p));
+			}
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				javaSerialize(p);
+			}
+			double javaRate = iterations / ((System.nanoTime() - start) / 1e9);
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				PacketCodec.encode(p);
+			}
+			double framedRate = iterations / ((System.nanoTime() - start) / 1e9);
+			System.out.println(String.format("%-16s %14d %14d %14.0f %14.0f", p.getCmd(), javaBytes, framedBytes,
+					javaRate, framedRate));
+		}
+	}
+
+	private static byte[] javaSerialize(Packet p) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bytes);
+		oos.writeObject(p);
+		oos.flush();
+		return bytes.toByteArray();
+	}
+
+	private static DependencyHashes buildHashes() {
+		String hash = "1DA39A3EE5E6B4B0D3255BFEF95601890AFD80709";
+		return new DependencyHashes(hash, hash, hash, hash, hash);
+	}
+
+	private static NetworkMatch buildMatch(long id) {
+		BSMap map = new BSMap("benchmark_map", 60l, 60l, 3000l);
+		map.setId(1l);
+		map.setHash("1DA39A3EE5E6B4B0D3255BFEF95601890AFD80709");
+		return new NetworkMatch(1l, id, "team_a", "team_b", map, 42l, map.getHash(), map.getHash());
+	}
+
+	private static NetworkMatch[] buildBatch(int size) {
+		NetworkMatch[] batch = new NetworkMatch[size];
+		for (int i = 0; i < size; i++) {
+			batch[i] = buildMatch(i);
+		}
+		return batch;
+	}
+
+	private static MatchResultImpl buildResult() {
+		MatchResultImpl result = new MatchResultImpl();
+		result.setWinner(TEAM.A);
+		result.setWinCondition(WIN_CONDITION.DESTROY);
+		result.setRounds((long) NUM_ROUNDS);
+		result.setaResult(buildTeamResult());
+		result.setbResult(buildTeamResult());
+		return result;
+	}
+
+	private static TeamMatchResult buildTeamResult() {
+		Random r = new Random(0);
+		TeamMatchResult tmr = new TeamMatchResult();
+		tmr.setTotalRobots(randomIntegers(r));
+		tmr.setActiveRobots(randomIntegers(r));
+		tmr.setTotalRobotsBuilt(randomIntegers(r));
+		tmr.setTotalRobotsKilled(randomIntegers(r));
+		// Real results never share arrays, so don't let java serialization write back-references
+		tmr.setRobotsByType(randomIntegerMatrix(r));
+		tmr.setActiveRobotsByType(randomIntegerMatrix(r));
+		tmr.setRobotsBuiltByType(randomIntegerMatrix(r));
+		tmr.setRobotsKilledByType(randomIntegerMatrix(r));
+		tmr.setFluxSpentOnSpawning(randomDoubles(r));
+		tmr.setFluxSpentOnMoving(randomDoubles(r));
+		tmr.setFluxSpentOnUpkeep(randomDoubles(r));
+		tmr.setTotalFluxGathered(randomDoubles(r));
+		return tmr;
+	}
+
+	private static int[] randomIntegers(Random r) {
+		int[] values = new int[NUM_ROUNDS];
+		int current = 0;
+		for (int i = 0; i < NUM_ROUNDS; i++) {
+			current = Math.max(0, current + r.nextInt(3) - 1);
+			values[i] = current;
+		}
+		return values;
+	}
+
+	private static int[][] randomIntegerMatrix(Random r) {
+		int[][] values = new int[NUM_ROBOT_TYPES][];
+		for (int i = 0; i < NUM_ROBOT_TYPES; i++) {
+			values[i] = randomIntegers(r);
+		}
+		return values;
+	}
+
+	private static double[] randomDoubles(Random r) {
+		double[] values = new double[NUM_ROUNDS];
+		double current = 0;
+		for (int i = 0; i < NUM_ROUNDS; i++) {
+			current += r.nextDouble();
+			values[i] = current;
+		}
+		return values;
+	}
+}
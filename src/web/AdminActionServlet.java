@@ -9,6 +9,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import master.AbstractMaster;
 import master.WebSocketChannelManager;
 import model.BSMap;
 import model.BSPlayer;
@@ -130,6 +131,10 @@ public class AdminActionServlet extends HttpServlet {
 			em.getTransaction().commit();
 			out.print("success");
 		}
+		else if ("reanalyze_matches".equals(cmd)) {
+			AbstractMaster.getMaster().reanalyzeMatches();
+			out.print("success");
+		}
 		else if ("change_pass".equals(cmd)) {
 
 		}
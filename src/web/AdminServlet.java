@@ -46,7 +46,8 @@ public class AdminServlet extends HttpServlet {
 			return;
 		}
 
-		out.println("<div style='clear:both; width:100%; text-align:center'><button id='download'>Download worker</button></div>");
+		out.println("<div style='clear:both; width:100%; text-align:center'><button id='download'>Download worker</button>" +
+				"<button id='reanalyze'>Re-analyze matches</button></div>");
 		out.println("<div style='float:left'>");
 		out.println("<h2 style='text-align:center; width:100%'>Pending Users</h2>");
 		out.println("<table id='new_user_table' class='datatable' style='width:470px'>");
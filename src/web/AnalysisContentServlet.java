@@ -231,7 +231,19 @@ public class AnalysisContentServlet extends HttpServlet {
 		out.println("</body></html>");
 	}
 
-	private static void printArray(PrintWriter out, String name, Object[] array) {
+	private static void printArray(PrintWriter out, String name, int[] array) {
+		out.print("dataMap['" + name + "'] = [");
+		if (array != null) {
+			for (int i = 0; i < array.length; i++) {
+				out.print("[" + i + "," + array[i] + "],");
+			}
+		} else {
+			out.print("[0,0],");
+		}
+		out.println("];");
+	}
+
+	private static void printArray(PrintWriter out, String name, double[] array) {
 		out.print("dataMap['" + name + "'] = [");
 		if (array != null) {
 			for (int i = 0; i < array.length; i++) {
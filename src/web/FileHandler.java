@@ -1,6 +1,8 @@
 package web;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -8,6 +10,8 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.ResourceHandler;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.resource.Resource;
 
 public class FileHandler extends ResourceHandler {
 
@@ -20,6 +24,9 @@ public class FileHandler extends ResourceHandler {
 		if (request.getRequestURI().equals("/"))
 			return;
 		try {
+			if (handleCompressed(target, baseRequest, request, response)) {
+				return;
+			}
 			super.handle(target, baseRequest, request, response);
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -28,4 +35,40 @@ public class FileHandler extends ResourceHandler {
 		}
 	}
 
+	/**
+	 * Match output files are stored gzipped.  If the requested file only exists gzipped, send it
+	 * with gzip content encoding, or unzip it if the client doesn't accept gzip.
+	 * @return true if the request was handled
+	 * @throws IOException
+	 */
+	private boolean handleCompressed(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (!target.endsWith(".out")) {
+			return false;
+		}
+		Resource resource = getResource(target);
+		if (resource == null || resource.exists()) {
+			return false;
+		}
+		Resource compressed = getResource(target + ".gz");
+		if (compressed == null || !compressed.exists()) {
+			return false;
+		}
+		baseRequest.setHandled(true);
+		response.setContentType("text/plain");
+		String acceptEncoding = request.getHeader("Accept-Encoding");
+		InputStream in = compressed.getInputStream();
+		try {
+			if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+				response.setHeader("Content-Encoding", "gzip");
+				response.setContentLength((int) compressed.length());
+				IO.copy(in, response.getOutputStream());
+			} else {
+				IO.copy(new GZIPInputStream(in), response.getOutputStream());
+			}
+		} finally {
+			in.close();
+		}
+		return true;
+	}
+
 }
@@ -67,7 +67,7 @@ public class MatchesServlet extends HttpServlet {
 			out.println(td(match) + match.getResult().getWinCondition() + "</td>");
 			out.println("<td><a href='/matches/" + match.toMatchFileName() + "'>download</a></td>");
 			out.println("<td><a href='/matches/" + match.toOutputFileName() + "'>download</a></td>");
-			out.println("<td><a href='/matches/" + match.toObsFileName() + "'>download</a></td>");
+			out.println("<td><a href='" + ObservationServlet.NAME + "?id=" + match.getId() + "'>view</a></td>");
 			out.println("</tr>");
 		}
 		em.close();
@@ -0,0 +1,173 @@
+package web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+
+import javax.persistence.EntityManager;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import model.BSMatch;
+import model.BSScrimmageSet;
+
+import org.apache.commons.io.IOUtils;
+
+import common.Config;
+import common.HibernateUtil;
+import common.IndexedGzip;
+
+/**
+ * Shows the observations of a match one page at a time.  Pages are addressed by their byte offset
+ * in the uncompressed observations, and always start at the beginning of a line.
+ * @author stevearc
+ *
+ */
+public class ObservationServlet extends HttpServlet {
+	private static final long serialVersionUID = -4520133986410267739L;
+	public static final String NAME = "/observations.html";
+	// How many bytes of observations to show at once.  A page is extended to finish its last line.
+	private static final int PAGE_SIZE = 64 * 1024;
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response.setContentType("text/html");
+		response.setCharacterEncoding("UTF-8");
+		response.setStatus(HttpServletResponse.SC_OK);
+		PrintWriter out = response.getWriter();
+		out.println("<html><head>");
+		out.println("<title>Battlecode Tester</title>");
+		out.println("</head>");
+		out.println("<body>");
+		String strId = request.getParameter("id");
+		String strScrim = request.getParameter("scrimmage");
+		String strGame = request.getParameter("game");
+		String strOffset = request.getParameter("offset");
+		long offset = 0;
+		if (strOffset != null) {
+			if (!strOffset.matches("\\d{1,18}")) {
+				out.println("Invalid offset</body></html>");
+				return;
+			}
+			offset = Long.parseLong(strOffset);
+		}
+		// Find the file from the database so the request can't name arbitrary files
+		String path;
+		String url;
+		String query;
+		EntityManager em = HibernateUtil.getEntityManager();
+		if (strScrim != null) {
+			if (!strScrim.matches("\\d+") || strGame == null || !strGame.matches("\\d+")) {
+				em.close();
+				out.println("Invalid id</body></html>");
+				return;
+			}
+			BSScrimmageSet scrim = em.find(BSScrimmageSet.class, new Long(strScrim));
+			int game = Integer.parseInt(strGame);
+			if (scrim == null || game >= scrim.getScrimmageMatches().size()) {
+				em.close();
+				out.println("Invalid id</body></html>");
+				return;
+			}
+			path = Config.scrimmageDir + scrim.toObsFileName(game);
+			url = "/scrimmages/" + scrim.toObsFileName(game);
+			query = "scrimmage=" + strScrim + "&game=" + strGame;
+		} else {
+			if (strId == null || !strId.matches("\\d+")) {
+				em.close();
+				out.println("Invalid id</body></html>");
+				return;
+			}
+			BSMatch match = em.find(BSMatch.class, new Long(strId));
+			if (match == null) {
+				em.close();
+				out.println("Invalid id</body></html>");
+				return;
+			}
+			path = Config.matchDir + match.toObsFileName();
+			url = "/matches/" + match.toObsFileName();
+			query = "id=" + strId;
+		}
+		em.close();
+
+		InputStream in = openObservations(path, offset);
+		if (in == null) {
+			out.println("No observations found</body></html>");
+			return;
+		}
+		byte[] page;
+		boolean more;
+		try {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream(PAGE_SIZE);
+			byte[] chunk = new byte[PAGE_SIZE];
+			int n = 0;
+			int read;
+			while (n < PAGE_SIZE && (read = in.read(chunk, n, PAGE_SIZE - n)) != -1) {
+				n += read;
+			}
+			buffer.write(chunk, 0, n);
+			// Finish the last line so the next page starts on a new one
+			if (n == PAGE_SIZE && chunk[n - 1] != '\n') {
+				int b;
+				while (buffer.size() < 2 * PAGE_SIZE && (b = in.read()) != -1) {
+					buffer.write(b);
+					if (b == '\n') {
+						break;
+					}
+				}
+			}
+			page = buffer.toByteArray();
+			more = in.read() != -1;
+		} finally {
+			in.close();
+		}
+
+		out.println("<div>");
+		if (offset > 0) {
+			out.println("<a href='" + NAME + "?" + query + "'>First page</a>");
+		}
+		if (more) {
+			out.println("<a href='" + NAME + "?" + query + "&offset=" + (offset + page.length) + "'>Next page</a>");
+		}
+		out.println("<a href='" + url + "'>download</a>");
+		out.println("</div>");
+		out.println("<pre>" + escapeHtml(new String(page, "UTF-8")) + "</pre>");
+		if (more) {
+			out.println("<a href='" + NAME + "?" + query + "&offset=" + (offset + page.length) + "'>Next page</a>");
+		}
+		out.println("</body></html>");
+	}
+
+	/**
+	 * Observations are stored gzipped, but matches from older versions have them uncompressed
+	 * @return The uncompressed observations starting at offset, or null if there are none
+	 */
+	private InputStream openObservations(String path, long offset) throws IOException {
+		File compressed = new File(path + ".gz");
+		if (compressed.exists()) {
+			return IndexedGzip.open(compressed, offset);
+		}
+		File file = new File(path);
+		if (file.exists()) {
+			InputStream in = new FileInputStream(file);
+			try {
+				IOUtils.skip(in, offset);
+			} catch (IOException e) {
+				in.close();
+				throw e;
+			}
+			return in;
+		}
+		return null;
+	}
+
+	private static String escapeHtml(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+
+}
@@ -66,7 +66,7 @@ public class ScrimmageViewServlet extends HttpServlet{
 			out.println(td(result) + "<font color='" + (result.getWinner() == TEAM.A ? "red'>" + scrim.getPlayerA() : "blue'>" + scrim.getPlayerB()) + "</font></td>");
 			out.println(td(result) + result.getRounds() + "</td>");
 			out.println(td(result) + result.getWinCondition() + "</td>");
-			out.println("<td><a href='/scrimmages/" + scrim.toObsFileName(i) + "'>download</a></td>");
+			out.println("<td><a href='" + ObservationServlet.NAME + "?scrimmage=" + scrim.getId() + "&game=" + i + "'>view</a></td>");
 			out.println("</tr>");
 		}
 		em.close();
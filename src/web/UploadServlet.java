@@ -92,6 +92,8 @@ public class UploadServlet extends HttpServlet {
 					WebSocketChannelManager.broadcastMsg("index", "ADD_PLAYER", bsPlayer.getId() + "," + bsPlayer.getPlayerName());
 				}
 				em.close();
+				// The jar was replaced even if the player already existed, so compile it either way
+				AbstractMaster.kickoffCompilePlayers();
 			}
 		} else if (request.getParameter("submit-update") != null) {
 			File battlecode_server = (File) request.getAttribute("battlecode-server");
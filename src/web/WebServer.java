@@ -56,6 +56,7 @@ public class WebServer implements Runnable {
 			context.addServlet(MyWebSocketServlet.class, MyWebSocketServlet.NAME);
 			context.addServlet(ScrimmagesServlet.class, ScrimmagesServlet.NAME);
 			context.addServlet(ScrimmageViewServlet.class, ScrimmageViewServlet.NAME);
+			context.addServlet(ObservationServlet.class, ObservationServlet.NAME);
 
 			EnumSet<DispatcherType> en = EnumSet.of(DispatcherType.REQUEST);
 			// Set up filters for login blocking and handling file uploads
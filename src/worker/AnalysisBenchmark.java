@@ -0,0 +1,103 @@
+package worker;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.ObjectInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import model.MatchResultImpl;
+
+import battlecode.serial.MatchHeader;
+import battlecode.server.proxy.XStreamProxy;
+
+/**
+ * Measures the throughput and allocation rate of {@link GameData#analyzeMatch()} on recorded
+ * match files.  The files are read into memory first so only the analysis is timed.
+ *
+ * Run with: java -cp bs-tester.jar:lib/*:battlecode-server.jar worker.AnalysisBenchmark iterations file.rms...
+ * @author stevearc
+ *
+ */
+public class AnalysisBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: AnalysisBenchmark iterations file.rms...");
+			System.exit(1);
+		}
+		int iterations = Integer.parseInt(args[0]);
+		System.out.println(String.format("%-30s %8s %10s %12s %14s", "file", "games", "rounds", "games/s", "MB alloc/game"));
+		for (int i = 1; i < args.length; i++) {
+			List<List<Object>> games = readGames(args[i]);
+			int rounds = 0;
+			// Warm up the JIT before timing
+			for (int j = 0; j < Math.max(1, iterations / 10); j++) {
+				for (List<Object> game: games) {
+					rounds = analyze(game).getRounds().intValue();
+				}
+			}
+			long startAlloc = allocatedBytes();
+			long start = System.nanoTime();
+			for (int j = 0; j < iterations; j++) {
+				for (List<Object> game: games) {
+					analyze(game);
+				}
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			long allocated = allocatedBytes() - startAlloc;
+			int analyzed = iterations * games.size();
+			System.out.println(String.format("%-30s %8d %10d %12.1f %14.2f", args[i], games.size(), rounds,
+					analyzed / seconds, startAlloc < 0 ? Double.NaN : allocated / 1e6 / analyzed));
+		}
+	}
+
+	private static MatchResultImpl analyze(List<Object> game) throws Exception {
+		GameData gameData = new GameData();
+		for (Object o: game) {
+			gameData.addData(o);
+		}
+		return gameData.analyzeMatch();
+	}
+
+	/**
+	 * Split a match file into the objects for each game, the same way {@link GameAnalyzer} does
+	 */
+	private static List<List<Object>> readGames(String filename) throws Exception {
+		ObjectInputStream input = XStreamProxy.getXStream().createObjectInputStream(
+				new GZIPInputStream(new FileInputStream(filename)));
+		List<List<Object>> games = new ArrayList<List<Object>>();
+		List<Object> game = null;
+		try {
+			Object o;
+			while ((o = input.readObject()) != null) {
+				if (o instanceof MatchHeader || game == null) {
+					game = new ArrayList<Object>();
+					games.add(game);
+				}
+				game.add(o);
+			}
+		} catch (EOFException e) {
+		}
+		input.close();
+		return games;
+	}
+
+	/**
+	 *
+	 * @return Bytes allocated by this thread, or -1 if the JVM can't measure it
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if (sunBean.isThreadAllocatedMemorySupported()) {
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+}
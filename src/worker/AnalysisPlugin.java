@@ -0,0 +1,17 @@
+package worker;
+
+/**
+ * Adds signal handlers to every match that is analyzed.  Register with
+ * {@link GameData#addPlugin(AnalysisPlugin)}.
+ * @author stevearc
+ *
+ */
+public interface AnalysisPlugin {
+
+	/**
+	 * Called once for each match that is analyzed, so the handlers can keep per-match state
+	 * @param dispatcher
+	 */
+	public void registerHandlers(SignalDispatcher dispatcher);
+
+}
@@ -0,0 +1,178 @@
+package worker;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+import common.BSUtil;
+import common.Config;
+import common.FileHashCache;
+
+/**
+ * Keeps the compiled classes of players on disk, so a player is only compiled once for each
+ * version of its jar and of battlecode-server.jar, even across restarts.  Each entry is a directory
+ * named by the hash of the player's package name, its jar and battlecode-server.jar.  The
+ * modification time of an entry is its last use, and the least recently used entries are deleted
+ * when the cache grows past {@link Config#PLAYER_CACHE_QUOTA}.
+ *
+ * The players that matches load are copies of the entries in the teams directory.  Each copy has a
+ * file with the key it was made from, so a player whose jar has changed is replaced.
+ * @author stevearc
+ *
+ */
+public class CompiledPlayerCache {
+	private static Logger _log = Logger.getLogger(CompiledPlayerCache.class);
+	/** Name of the file in a compiled player's directory that holds its cache key */
+	public static final String KEY_FILE = ".cache-key";
+	private final File dir;
+	private final FileHashCache hashCache;
+
+	public CompiledPlayerCache(String dir, FileHashCache hashCache) {
+		this.dir = new File(dir);
+		this.hashCache = hashCache;
+		this.dir.mkdirs();
+		// Entries that were being written when the worker stopped
+		File[] partial = this.dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File pathname) {
+				return pathname.getName().endsWith(".tmp");
+			}
+		});
+		for (File f: partial) {
+			try {
+				FileUtils.deleteDirectory(f);
+			} catch (IOException e) {
+				_log.warn("Error deleting partial compiled player: " + f.getPath(), e);
+			}
+		}
+	}
+
+	/**
+	 * Make sure the teams directory holds the players compiled from the current versions of their
+	 * jars.  A player that isn't in the cache is taken from the bundle the master compiled, or
+	 * compiled here if there is no current bundle.  Players that have to be compiled here are
+	 * compiled at the same time.
+	 * @param teamNames The package names of the compiled players
+	 * @param players The names of the players' jars
+	 * @throws IOException If a player could not be compiled.  The message has javac's errors.
+	 */
+	public synchronized void install(String[] teamNames, String[] players) throws IOException {
+		List<PlayerCompiler> compilers = new ArrayList<PlayerCompiler>();
+		List<String> compilerKeys = new ArrayList<String>();
+		for (int i = 0; i < teamNames.length; i++) {
+			String teamName = teamNames[i];
+			String bundleKey = PlayerBundle.getKey(hashCache, players[i]);
+			String key = BSUtil.SHA1(teamName + ":" + bundleKey);
+			File playerDir = new File(Config.teamsDir + teamName);
+			File keyFile = new File(playerDir, KEY_FILE);
+			File entry = new File(dir, key);
+			if (keyFile.exists() && FileUtils.readFileToString(keyFile).equals(key)) {
+				touch(entry);
+				continue;
+			}
+			FileUtils.deleteDirectory(playerDir);
+			if (entry.exists()) {
+				_log.info("Using cached compiled player " + teamName);
+				FileUtils.copyDirectory(entry, playerDir);
+				installed(teamName, key);
+			} else if (PlayerBundle.extract(players[i], bundleKey, teamName, new File(Config.teamsDir))) {
+				_log.info("Using player " + teamName + " compiled by the master");
+				add(teamName, key);
+			} else {
+				compilers.add(new PlayerCompiler(teamName, Config.teamsDir + players[i] + ".jar", new File(Config.teamsDir)));
+				compilerKeys.add(key);
+			}
+		}
+		PlayerCompiler.compileAll(compilers);
+		StringBuilder errors = new StringBuilder();
+		for (int i = 0; i < compilers.size(); i++) {
+			PlayerCompiler compiler = compilers.get(i);
+			if (compiler.isCompiled()) {
+				add(compiler.getTeamName(), compilerKeys.get(i));
+			} else {
+				// Don't cache the failure, so the player is compiled again next time
+				errors.append("Error compiling player " + compiler.getTeamName() + ":\n" + compiler.getDiagnostics());
+			}
+		}
+		if (errors.length() > 0) {
+			throw new IOException(errors.toString());
+		}
+	}
+
+	/**
+	 * Add a player that was just put in the teams directory to the cache
+	 */
+	private void add(String teamName, String key) throws IOException {
+		File entry = new File(dir, key);
+		File tmp = new File(dir, key + ".tmp");
+		FileUtils.copyDirectory(new File(Config.teamsDir + teamName), tmp);
+		if (!tmp.renameTo(entry)) {
+			_log.warn("Error adding compiled player to cache: " + entry.getPath());
+			FileUtils.deleteDirectory(tmp);
+		}
+		installed(teamName, key);
+	}
+
+	/**
+	 * Mark the copy of a player in the teams directory with the key it was made from
+	 */
+	private void installed(String teamName, String key) throws IOException {
+		File entry = new File(dir, key);
+		FileUtils.writeStringToFile(new File(Config.teamsDir + teamName, KEY_FILE), key);
+		touch(entry);
+		evict(entry);
+	}
+
+	private void touch(File entry) {
+		if (entry.exists()) {
+			entry.setLastModified(System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Delete the least recently used entries until the cache fits in its quota
+	 * @param keep The entry that was just used
+	 */
+	private void evict(File keep) {
+		File[] entries = dir.listFiles();
+		if (entries == null) {
+			return;
+		}
+		List<File> byAge = new ArrayList<File>(Arrays.asList(entries));
+		Collections.sort(byAge, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.valueOf(o1.lastModified()).compareTo(o2.lastModified());
+			}
+		});
+		long size = 0;
+		for (File f: byAge) {
+			size += FileUtils.sizeOf(f);
+		}
+		for (File f: byAge) {
+			if (size <= Config.PLAYER_CACHE_QUOTA) {
+				break;
+			}
+			if (f.equals(keep)) {
+				continue;
+			}
+			long entrySize = FileUtils.sizeOf(f);
+			try {
+				FileUtils.deleteDirectory(f);
+				size -= entrySize;
+				_log.info("Evicted compiled player " + f.getName());
+			} catch (IOException e) {
+				_log.warn("Error evicting compiled player: " + f.getPath(), e);
+			}
+		}
+	}
+
+}
@@ -2,11 +2,23 @@ package worker;
 
 import java.io.ByteArrayInputStream;
 import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 
 import model.MatchResultImpl;
@@ -17,22 +29,60 @@ import org.apache.log4j.Logger;
 import battlecode.serial.MatchHeader;
 import battlecode.server.proxy.XStreamProxy;
 
+/**
+ * Reads match files and analyzes each game in them.  The stream is decoded on the calling thread
+ * and split at each {@link MatchHeader}; every game is folded into its own {@link GameData} on a
+ * shared pool, so the games of a scrimmage are analyzed in parallel while the rest of the file
+ * is still being decoded.
+ *
+ * Match files are read with the {@link ReplayDecoder} when no {@link AnalysisPlugin}s need the
+ * full signals, and with XStream if the decoder doesn't recognize the file.
+ *
+ * The observations of each game are written to a gzipped temporary file, which is deleted by
+ * {@link #close()}.
+ * @author stevearc
+ *
+ */
 public class GameAnalyzer {
 	private static final Logger _log = Logger.getLogger(GameAnalyzer.class);
+	// How many decoded objects may wait for a game's analysis before the decoder blocks
+	private static final int GAME_QUEUE_CAPACITY = 256;
+	// Marks the last object of a game in its queue
+	private static final Object END_OF_GAME = new Object();
+	private static final ExecutorService analysisPool = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "game-analyzer-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	private byte[] data;
+	private String filename;
 	private ObjectInputStream input;
 	private List<MatchResultImpl> results;
-	private List<String> observationList;
+	private List<File> observationFiles = new ArrayList<File>();
 	private String teamA;
 	private String teamB;
 	private String[] maps;
-	private StringBuilder observations = new StringBuilder();
 
-	public GameAnalyzer(byte[] data) throws IOException, ClassNotFoundException {
-		input = XStreamProxy.getXStream().createObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(data)));
+	public GameAnalyzer(byte[] data) {
+		this.data = data;
+	}
+
+	public GameAnalyzer(String filename) {
+		this.filename = filename;
 	}
 
-	public GameAnalyzer(String filename) throws IOException, ClassNotFoundException {
-		input = XStreamProxy.getXStream().createObjectInputStream(new GZIPInputStream(new FileInputStream(filename)));
+	private InputStream openReplay() throws IOException {
+		if (data != null) {
+			return new GZIPInputStream(new ByteArrayInputStream(data));
+		} else {
+			return new GZIPInputStream(new FileInputStream(filename));
+		}
 	}
 
 	public List<ScrimmageMatchResult> analyzeScrimmageMatches() throws IOException, ClassNotFoundException {
@@ -40,9 +90,7 @@ public class GameAnalyzer {
 		List<MatchResultImpl> r = analyzeMatches();
 		for (int i = 0; i < r.size(); i++) {
 			MatchResultImpl m = r.get(i);
-			ScrimmageMatchResult smr = new ScrimmageMatchResult(m);
-			smr.setObservations(observationList.get(i));
-			scrimResults.add(smr);
+			scrimResults.add(new ScrimmageMatchResult(m));
 		}
 		if (maps == null) {
 			throw new IOException("Scrimmage match has no map data");
@@ -69,6 +117,20 @@ public class GameAnalyzer {
 		if (results != null) {
 			return results;
 		}
+		if (!GameData.hasPlugins()) {
+			input = new ReplayDecoder(openReplay());
+			try {
+				return analyzeMatches(input);
+			} catch (StreamCorruptedException e) {
+				_log.warn("Replay format not recognized, reading it with XStream instead", e);
+				close();
+			}
+		}
+		input = XStreamProxy.getXStream().createObjectInputStream(openReplay());
+		return analyzeMatches(input);
+	}
+
+	private List<MatchResultImpl> analyzeMatches(ObjectInputStream input) throws IOException, ClassNotFoundException {
 		results = new ArrayList<MatchResultImpl>();
 		// Initialize first Game
 		Object o = input.readObject();
@@ -76,34 +138,57 @@ public class GameAnalyzer {
 			_log.error("Match in bad format");
 			return results;
 		}
-		List<GameData> gameDatas = new ArrayList<GameData>();
-		GameData gameData = new GameData();
-		gameData.addData(o);
-		gameDatas.add(gameData);
-
+		// Each game is analyzed on the pool as it is read and only its results are kept
+		List<GameTask> tasks = new ArrayList<GameTask>();
+		List<Future<MatchResultImpl>> futures = new ArrayList<Future<MatchResultImpl>>();
+		boolean finished = false;
 		try {
-			while ((o = input.readObject()) != null) {
-				if (o instanceof MatchHeader) {
-					// New Game
-					results.add(gameData.analyzeMatch());
-					gameData = new GameData();
-					gameDatas.add(gameData);
-				}
+			GameTask task = startGame(tasks, futures);
+			task.queue.put(o);
+			try {
+				while ((o = input.readObject()) != null) {
+					if (o instanceof MatchHeader) {
+						// New Game
+						task.queue.put(END_OF_GAME);
+						task = startGame(tasks, futures);
+					}
 
-				gameData.addData(o);
+					task.queue.put(o);
+				}
+			} catch (EOFException e) {
+				// Aaaaaand we're done
+			}
+			task.queue.put(END_OF_GAME);
+			for (int i = 0; i < futures.size(); i++) {
+				results.add(futures.get(i).get());
+			}
+			finished = true;
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while analyzing match", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Error analyzing match", e.getCause());
+		} finally {
+			if (!finished) {
+				results = null;
+				for (Future<MatchResultImpl> future: futures) {
+					future.cancel(true);
+				}
+				for (GameTask t: tasks) {
+					t.gameData.getObservations().delete();
+				}
 			}
-		} catch (EOFException e) {
-			// Aaaaaand we're done
 		}
-		results.add(gameData.analyzeMatch());
+		GameData gameData = tasks.get(tasks.size() - 1).gameData;
 		// Pull the metadata out of the final match
 		teamA = gameData.getTeamA();
 		teamB = gameData.getTeamB();
 		maps = gameData.getMaps();
 		String header = "-------------------- Match Starting --------------------";
 		StringBuilder sb;
-		observationList = new ArrayList<String>();
-		for (int i = 0; i < gameDatas.size(); i++) {
+		for (int i = 0; i < tasks.size(); i++) {
 			sb = new StringBuilder();
 			sb.append(header);
 			sb.append("\n");
@@ -113,19 +198,73 @@ public class GameAnalyzer {
 			}
 			sb.append(center);
 			sb.append("\n");
-			sb.append(gameDatas.get(i).getObservations());
-			observations.append(sb.toString());
-			observationList.add(sb.toString());
+			try {
+				File observationFile = File.createTempFile("observations", ".out.gz");
+				observationFiles.add(observationFile);
+				tasks.get(i).gameData.getObservations().writeCompressed(sb.toString(), observationFile);
+			} catch (IOException e) {
+				for (GameTask t: tasks) {
+					t.gameData.getObservations().delete();
+				}
+				throw e;
+			}
 		}
 
 		return results;
 	}
 	
-	public String getObservations() {
-		return observations.toString();
+	private GameTask startGame(List<GameTask> tasks, List<Future<MatchResultImpl>> futures) {
+		GameTask task = new GameTask();
+		tasks.add(task);
+		futures.add(analysisPool.submit(task));
+		return task;
+	}
+
+	/**
+	 * Folds the objects of one game into a {@link GameData} as the decoder hands them over
+	 */
+	private static class GameTask implements Callable<MatchResultImpl> {
+		private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(GAME_QUEUE_CAPACITY);
+		private final GameData gameData = new GameData();
+
+		@Override
+		public MatchResultImpl call() throws Exception {
+			try {
+				Object o;
+				while ((o = queue.take()) != END_OF_GAME) {
+					gameData.addData(o);
+				}
+			} catch (InterruptedException e) {
+				throw e;
+			} catch (Exception e) {
+				// Keep draining so the decoder doesn't block on a full queue
+				while (queue.take() != END_OF_GAME) {
+				}
+				throw e;
+			}
+			return gameData.analyzeMatch();
+		}
+	}
+
+	/**
+	 * 
+	 * @return The gzipped observations of each game, in the same order as the results
+	 */
+	public List<File> getObservationFiles() {
+		return observationFiles;
 	}
 	
+	/**
+	 * Close the match file and delete the observation files
+	 */
 	public void close() {
+		for (File file: observationFiles) {
+			file.delete();
+		}
+		observationFiles.clear();
+		if (input == null) {
+			return;
+		}
 		try {
 			input.close();
 		} catch (IOException e) {
@@ -2,12 +2,10 @@ package worker;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import model.MatchResultImpl;
 import model.TEAM;
-import model.TeamMatchResult;
 import model.MatchResult.WIN_CONDITION;
 import battlecode.common.GameConstants;
 import battlecode.common.MapLocation;
@@ -30,21 +28,165 @@ import battlecode.world.signal.SpawnSignal;
 
 /**
  * This class reads and analyzes rms (match) files.  It links against battlecode-server.jar
+ * Each signal is sent to the {@link SignalHandler}s registered for its class; other metrics can
+ * be added with {@link #addPlugin(AnalysisPlugin)}.  Rounds read by the {@link ReplayDecoder} have
+ * no signal objects and call the same methods directly.
  * @author stevearc
  *
  */
 public class GameData extends Proxy {
-	// Maps robotID to info
-	private HashMap<Integer, RobotStat> robots = new HashMap<Integer, RobotStat>();
-	private HashMap<Integer, RobotStat>[] archons;
+	private static final CopyOnWriteArrayList<AnalysisPlugin> plugins = new CopyOnWriteArrayList<AnalysisPlugin>();
+	private RobotTable robots = new RobotTable();
+	// IDs of each team's archons in ascending order
+	private IntList[] archons;
+	private TeamStats[] teamStats;
 
 	private MatchFooter footer;
-	private ArrayList<RoundDelta> rounds = new ArrayList<RoundDelta>();
+	private int roundNum;
 	private GameStats gameStats;
 	private String teamA;
 	private String teamB;
 	private String[] maps;
-	private StringBuilder observations = new StringBuilder();
+	private final ObservationLog observations = new ObservationLog();
+	private final SignalDispatcher dispatcher = new SignalDispatcher();
+
+	public GameData() {
+		int numTeams = Team.values().length;
+		archons = new IntList[numTeams];
+		teamStats = new TeamStats[numTeams];
+		for (int i = 0; i < numTeams; i++) {
+			archons[i] = new IntList();
+			teamStats[i] = new TeamStats(RobotType.values().length);
+		}
+		registerHandlers();
+	}
+
+	private void registerHandlers() {
+		dispatcher.register(SpawnSignal.class, new SignalHandler<SpawnSignal>() {
+			@Override
+			public void handle(SpawnSignal s, int round) {
+				robotSpawned(s.getRobotID(), s.getTeam(), s.getType(), s.getLoc());
+			}
+		});
+		dispatcher.register(DeathSignal.class, new SignalHandler<DeathSignal>() {
+			@Override
+			public void handle(DeathSignal s, int round) {
+				robotDied(s.getObjectID());
+			}
+		});
+		dispatcher.register(MovementSignal.class, new SignalHandler<MovementSignal>() {
+			@Override
+			public void handle(MovementSignal s, int round) {
+				robotMoved(s.getRobotID(), s.getNewLoc());
+			}
+		});
+		dispatcher.register(FluxChangeSignal.class, new SignalHandler<FluxChangeSignal>() {
+			@Override
+			public void handle(FluxChangeSignal s, int round) {
+				fluxChanged(s.getRobotIDs(), s.getFlux());
+			}
+		});
+		dispatcher.register(BytecodesUsedSignal.class, new SignalHandler<BytecodesUsedSignal>() {
+			@Override
+			public void handle(BytecodesUsedSignal s, int round) {
+				bytecodesUsed(s.getRobotIDs(), s.getNumBytecodes());
+			}
+		});
+		dispatcher.register(MatchObservationSignal.class, new SignalHandler<MatchObservationSignal>() {
+			@Override
+			public void handle(MatchObservationSignal s, int round) {
+				observationMade(s.getRobotID(), s.getObservation());
+			}
+		});
+		for (AnalysisPlugin plugin: plugins) {
+			plugin.registerHandlers(dispatcher);
+		}
+	}
+
+	void robotSpawned(int id, Team team, RobotType type, MapLocation location) {
+		TeamStats stats = teamStats[team.ordinal()];
+		stats.robotAdded(type.ordinal());
+		robots.add(id, team, type, location);
+		if (robots.recalculateOnStatus(id)) {
+			if (robots.isOn(id)) {
+				stats.robotActivated(type.ordinal());
+			}
+		}
+		stats.robotBuilt(type.ordinal(), type.spawnCost);
+		if (type == RobotType.ARCHON) {
+			archonAdded(id);
+		}
+	}
+
+	void robotDied(int id) {
+		int type = robots.getTypeIndex(id);
+		TeamStats stats = teamStats[robots.getTeamIndex(id)];
+		stats.robotRemoved(type);
+		if (robots.isOn(id)) {
+			stats.robotDeactivated(type);
+		}
+		teamStats[robots.getTeam(id).opponent().ordinal()].robotKilled(type);
+		if (robots.getType(id) == RobotType.ARCHON) {
+			archonRemoved(id);
+		}
+		robots.remove(id);
+	}
+
+	void robotMoved(int id, MapLocation location) {
+		RobotType type = robots.getType(id);
+		teamStats[robots.getTeamIndex(id)].fluxSpentOnMoving(type.moveCost);
+		robots.setLocation(id, location);
+		if (type == RobotType.ARCHON) {
+			archonMoved(id);
+		}
+	}
+
+	void fluxChanged(int[] ids, double[] flux) {
+		for (int i = 0; i < ids.length; i++) {
+			int id = ids[i];
+			robots.setFlux(id, flux[i]);
+			if (robots.recalculateOnStatus(id)) {
+				if (robots.isOn(id)) {
+					teamStats[robots.getTeamIndex(id)].robotActivated(robots.getTypeIndex(id));
+				} else {
+					teamStats[robots.getTeamIndex(id)].robotDeactivated(robots.getTypeIndex(id));
+				}
+			}
+		}
+	}
+
+	void bytecodesUsed(int[] ids, int[] bytecodes) {
+		for (int i = 0; i < ids.length; i++) {
+			RobotType type = robots.getType(ids[i]);
+			int bytecodesBelowBase = GameConstants.BYTECODE_LIMIT - bytecodes[i];
+			// Refund the yield bonus to upkeep
+			if(bytecodesBelowBase > 0 && type != RobotType.ARCHON && type != RobotType.TOWER) {
+				teamStats[robots.getTeamIndex(ids[i])].fluxSpentOnUpkeep(GameConstants.UNIT_UPKEEP - 
+				(GameConstants.YIELD_BONUS*bytecodesBelowBase/GameConstants.BYTECODE_LIMIT*GameConstants.UNIT_UPKEEP));	
+			}
+		}
+	}
+
+	void observationMade(int id, String observation) {
+		observations.append("[" + robots.getTeam(id) + ":" + robots.getType(id) + "#" + id + 
+				"@" + roundNum + "] " + observation + "\n");
+	}
+
+	/**
+	 * Add handlers to every match analyzed from now on
+	 * @param plugin
+	 */
+	public static void addPlugin(AnalysisPlugin plugin) {
+		plugins.add(plugin);
+	}
+
+	/**
+	 *
+	 * @return true if any plugins need the full signals of each round
+	 */
+	public static boolean hasPlugins() {
+		return !plugins.isEmpty();
+	}
 
 	@Override
 	public void open() throws IOException {
@@ -62,6 +204,8 @@ public class GameData extends Proxy {
 	public void addData(Object o) throws IOException {
 		if (o instanceof RoundDelta) {
 			writeRound((RoundDelta) o);
+		} else if (o instanceof ReplayRound) {
+			writeRound((ReplayRound) o);
 		} else if (o instanceof MatchFooter) {
 			writeFooter((MatchFooter) o);
 		} else if (o instanceof RoundStats) {
@@ -90,9 +234,42 @@ public class GameData extends Proxy {
 
 	}
 
+	/**
+	 * Fold a round into the running totals.  The round isn't kept, so memory use depends on the
+	 * number of robots and not the length of the match.
+	 */
 	@Override
 	public void writeRound(RoundDelta round) throws IOException {
-		this.rounds.add(round);
+		for (Signal signal: round.getSignals()) {
+			dispatcher.dispatch(signal, roundNum);
+		}
+		endRound();
+	}
+
+	/**
+	 * Fold a round read by the {@link ReplayDecoder}
+	 */
+	void writeRound(ReplayRound round) {
+		round.replay(this);
+		endRound();
+	}
+
+	private void endRound() {
+		// Calculate the flux produced this round.  The production of each archon is kept up to date
+		// as archons spawn, die and move.  The archons are summed in order of ID so the total doesn't
+		// depend on the order they spawned in.
+		for (int i = 0; i < teamStats.length; i++) {
+			IntList teamArchons = archons[i];
+			for (int j = 0; j < teamArchons.size(); j++) {
+				int id = teamArchons.get(j);
+				teamStats[i].fluxGathered(Math.max(0, Math.min(robots.getProduction(id), RobotType.ARCHON.maxFlux - robots.getFlux(id))));
+			}
+		}
+
+		for (int i = 0; i < teamStats.length; i++) {
+			teamStats[i].endRound();
+		}
+		roundNum++;
 	}
 
 	@Override
@@ -117,221 +294,13 @@ public class GameData extends Proxy {
 		return maps;
 	}
 	
-	public String getObservations() {
-		return observations.toString();
+	ObservationLog getObservations() {
+		return observations;
 	}
 
-	@SuppressWarnings("unchecked")
 	public MatchResultImpl analyzeMatch() {
 		MatchResultImpl matchResult = new MatchResultImpl();
-		RobotStat r;
-		Team[] teams = Team.values();
-		archons = new HashMap[teams.length];
-		TeamMatchResult[] teamResults = new TeamMatchResult[teams.length];
-		ArrayList<Integer>[] totalRobots = new ArrayList[teams.length];
-		Integer[] currentRobots = new Integer[teams.length];
-		ArrayList<Integer>[][] robotsByType = new ArrayList[teams.length][RobotType.values().length];
-		Integer[][] currentRobotsByType = new Integer[teams.length][RobotType.values().length];
-		ArrayList<Integer>[] activeRobots = new ArrayList[teams.length];
-		Integer[] currentActiveRobots = new Integer[teams.length];
-		ArrayList<Integer>[][] activeRobotsByType = new ArrayList[teams.length][RobotType.values().length];
-		Integer[][] currentActiveRobotsByType = new Integer[teams.length][RobotType.values().length];
-		ArrayList<Double>[] fluxSpentOnSpawning = new ArrayList[teams.length];
-		Double[] currentFluxSpentOnSpawning = new Double[teams.length];
-		ArrayList<Double>[] fluxSpentOnMoving = new ArrayList[teams.length];
-		Double[] currentFluxSpentOnMoving = new Double[teams.length];
-		ArrayList<Double>[] fluxSpentOnUpkeep = new ArrayList[teams.length];
-		Double[] currentFluxSpentOnUpkeep = new Double[teams.length];
-		ArrayList<Integer>[] robotsBuilt = new ArrayList[teams.length];
-		Integer[] currentRobotsBuilt = new Integer[teams.length];
-		ArrayList<Integer>[][] robotsBuiltByType = new ArrayList[teams.length][RobotType.values().length];
-		Integer[][] currentRobotsBuiltByType = new Integer[teams.length][RobotType.values().length];
-		ArrayList<Integer>[] robotsKilled = new ArrayList[teams.length];
-		Integer[] currentRobotsKilled = new Integer[teams.length];
-		ArrayList<Integer>[][] robotsKilledByType = new ArrayList[teams.length][RobotType.values().length];
-		Integer[][] currentRobotsKilledByType = new Integer[teams.length][RobotType.values().length];
-		ArrayList<Double>[] fluxGathered = new ArrayList[teams.length];
-		Double[] currentFluxGathered = new Double[teams.length];
-
-		for (int i = 0; i < teams.length; i++) {
-			archons[i] = new HashMap<Integer, RobotStat>();
-			teamResults[i] = new TeamMatchResult();
-			totalRobots[i] = new ArrayList<Integer>();
-			currentRobots[i] = 0;
-			activeRobots[i] = new ArrayList<Integer>();
-			currentActiveRobots[i] = 0;
-			fluxSpentOnSpawning[i] = new ArrayList<Double>();
-			currentFluxSpentOnSpawning[i] = 0.0;
-			fluxSpentOnMoving[i] = new ArrayList<Double>();
-			currentFluxSpentOnMoving[i] = 0.0;
-			fluxSpentOnUpkeep[i] = new ArrayList<Double>();
-			currentFluxSpentOnUpkeep[i] = 0.0;
-			robotsBuilt[i] = new ArrayList<Integer>();
-			currentRobotsBuilt[i] = 0;
-			robotsKilled[i] = new ArrayList<Integer>();
-			currentRobotsKilled[i] = 0;
-			fluxGathered[i] = new ArrayList<Double>();
-			currentFluxGathered[i] = 0.0;
-			for (int j = 0; j < RobotType.values().length; j++) {
-				robotsByType[i][j] = new ArrayList<Integer>();
-				currentRobotsByType[i][j] = 0;
-				activeRobotsByType[i][j] = new ArrayList<Integer>();
-				currentActiveRobotsByType[i][j] = 0;
-				robotsBuiltByType[i][j] = new ArrayList<Integer>();
-				currentRobotsBuiltByType[i][j] = 0;
-				robotsKilledByType[i][j] = new ArrayList<Integer>();
-				currentRobotsKilledByType[i][j] = 0;
-			}
-		}
-
-		RoundDelta round;
-		for (int l = 0; l < rounds.size(); l++) {
-			round = rounds.get(l);
-
-			Signal[] signals = round.getSignals();
-			for (Signal signal: signals) {
-				if (signal instanceof SpawnSignal) 
-				{
-					SpawnSignal s = (SpawnSignal)signal;
-					currentRobots[s.getTeam().ordinal()]++;
-					currentRobotsByType[s.getTeam().ordinal()][s.getType().ordinal()]++;
-					r = new RobotStat(s.getTeam(), s.getType());
-					r.setLocation(s.getLoc());
-					if (r.recalculateOnStatus()) {
-						if (r.isOn()) {
-							currentActiveRobots[s.getTeam().ordinal()]++;
-							currentActiveRobotsByType[s.getTeam().ordinal()][s.getType().ordinal()]++;
-						}
-					}
-					currentFluxSpentOnSpawning[s.getTeam().ordinal()] += s.getType().spawnCost;
-					currentRobotsBuilt[s.getTeam().ordinal()]++;
-					currentRobotsBuiltByType[s.getTeam().ordinal()][s.getType().ordinal()]++;
-					robots.put(s.getRobotID(), r);
-					if (s.getType() == RobotType.ARCHON) {
-						archons[r.team.ordinal()].put(s.getRobotID(), r);
-					}
-				} 
-				else if(signal instanceof DeathSignal) 
-				{
-					DeathSignal s = (DeathSignal)signal;
-					r = robots.remove(s.getObjectID());
-					currentRobots[r.team.ordinal()]--;
-					currentRobotsByType[r.team.ordinal()][r.type.ordinal()]--;
-					if (r.isOn()) {
-						currentActiveRobots[r.team.ordinal()]--;
-						currentActiveRobotsByType[r.team.ordinal()][r.type.ordinal()]--;
-					}
-					currentRobotsKilled[r.team.opponent().ordinal()]++;
-					currentRobotsKilledByType[r.team.opponent().ordinal()][r.type.ordinal()]++;
-					if (r.type == RobotType.ARCHON) {
-						archons[r.team.ordinal()].remove(s.getObjectID());
-					}
-				} 
-				else if (signal instanceof MovementSignal) 
-				{
-					MovementSignal s = (MovementSignal)signal;
-					r = robots.get(s.getRobotID());
-					currentFluxSpentOnMoving[r.team.ordinal()] += r.type.moveCost;
-					r.setLocation(s.getNewLoc());
-				} 
-				else if (signal instanceof FluxChangeSignal) 
-				{
-					FluxChangeSignal s = (FluxChangeSignal)signal;
-					for (int i = 0; i < s.getRobotIDs().length; i++) {
-						r = robots.get(s.getRobotIDs()[i]);
-						r.setFlux(s.getFlux()[i]);
-						if (r.recalculateOnStatus()) {
-							if (r.isOn()) {
-								currentActiveRobots[r.team.ordinal()]++;
-								currentActiveRobotsByType[r.team.ordinal()][r.type.ordinal()]++;
-							} else {
-								currentActiveRobots[r.team.ordinal()]--;
-								currentActiveRobotsByType[r.team.ordinal()][r.type.ordinal()]--;
-							}
-						}
-					}
-				} 
-				else if (signal instanceof BytecodesUsedSignal) 
-				{
-					BytecodesUsedSignal s = (BytecodesUsedSignal)signal;
-					for (int i = 0; i < s.getRobotIDs().length; i++) {
-						r = robots.get(s.getRobotIDs()[i]);
-						int bytecodesBelowBase = GameConstants.BYTECODE_LIMIT - s.getNumBytecodes()[i];
-						// Refund the yield bonus to upkeep
-						if(bytecodesBelowBase > 0 && r.type != RobotType.ARCHON && r.type != RobotType.TOWER) {
-							currentFluxSpentOnUpkeep[r.team.ordinal()] += GameConstants.UNIT_UPKEEP - 
-							(GameConstants.YIELD_BONUS*bytecodesBelowBase/GameConstants.BYTECODE_LIMIT*GameConstants.UNIT_UPKEEP);	
-						}
-					}
-				}
-				else if (signal instanceof MatchObservationSignal) {
-					MatchObservationSignal s = (MatchObservationSignal) signal;
-					r = robots.get(s.getRobotID());
-					observations.append("[" + r.team + ":" + r.type + "#" + s.getRobotID() + 
-							"@" + l + "] " + s.getObservation() + "\n");
-				}
-			}
-			// Calculate the flux produced this round
-			// This algorithm is copy/pasted from InternalRobot
-			for (int i = 0; i < teams.length; i++) {
-				for (RobotStat rs: archons[i].values()) {
-					int d, dmin = GameConstants.PRODUCTION_PENALTY_R2;
-					for (RobotStat other: archons[i].values()) {
-						d = rs.getLocation().distanceSquaredTo(other.getLocation());
-						if(d>0&&d<=dmin)
-							dmin=d;
-					}
-					double prod = GameConstants.MIN_PRODUCTION + (GameConstants.MAX_PRODUCTION - GameConstants.MIN_PRODUCTION)*
-					Math.sqrt(((double)dmin)/GameConstants.PRODUCTION_PENALTY_R2);
-					currentFluxGathered[i] += Math.max(0, Math.min(prod, RobotType.ARCHON.maxFlux - rs.flux));
-				}
-			}
-
-			for (int i = 0; i < teams.length; i++) {
-				totalRobots[i].add(currentRobots[i]);
-				activeRobots[i].add(currentActiveRobots[i]);
-				fluxSpentOnSpawning[i].add(currentFluxSpentOnSpawning[i]);
-				fluxSpentOnMoving[i].add(currentFluxSpentOnMoving[i]);
-				fluxSpentOnUpkeep[i].add(currentFluxSpentOnUpkeep[i]);
-				robotsBuilt[i].add(currentRobotsBuilt[i]);
-				robotsKilled[i].add(currentRobotsKilled[i]);
-				fluxGathered[i].add(currentFluxGathered[i]);
-				for (int j = 0; j < RobotType.values().length; j++) {
-					robotsByType[i][j].add(currentRobotsByType[i][j]);
-					activeRobotsByType[i][j].add(currentActiveRobotsByType[i][j]);
-					robotsBuiltByType[i][j].add(currentRobotsBuiltByType[i][j]);
-					robotsKilledByType[i][j].add(currentRobotsKilledByType[i][j]);
-				}
-			}
-		}
-		for (int i = 0; i < teams.length; i++) {
-			teamResults[i].setTotalRobots(totalRobots[i].toArray(new Integer[rounds.size()]));
-			teamResults[i].setActiveRobots(activeRobots[i].toArray(new Integer[rounds.size()]));
-			teamResults[i].setFluxSpentOnSpawning(fluxSpentOnSpawning[i].toArray(new Double[rounds.size()]));
-			teamResults[i].setFluxSpentOnMoving(fluxSpentOnMoving[i].toArray(new Double[rounds.size()]));
-			teamResults[i].setFluxSpentOnUpkeep(fluxSpentOnUpkeep[i].toArray(new Double[rounds.size()]));
-			teamResults[i].setTotalRobotsBuilt(robotsBuilt[i].toArray(new Integer[rounds.size()]));
-			teamResults[i].setTotalRobotsKilled(robotsKilled[i].toArray(new Integer[rounds.size()]));
-			teamResults[i].setTotalFluxGathered(fluxGathered[i].toArray(new Double[rounds.size()]));
-
-			Integer[][] robotsByTypeArray = new Integer[RobotType.values().length][];
-			Integer[][] activeRobotsByTypeArray = new Integer[RobotType.values().length][];
-			Integer[][] robotsBuiltByTypeArray = new Integer[RobotType.values().length][];
-			Integer[][] robotsKilledByTypeArray = new Integer[RobotType.values().length][];
-			for (int j = 0; j < RobotType.values().length; j++) {
-				robotsByTypeArray[j] = robotsByType[i][j].toArray(new Integer[rounds.size()]);
-				activeRobotsByTypeArray[j] = activeRobotsByType[i][j].toArray(new Integer[rounds.size()]);
-				robotsBuiltByTypeArray[j] = robotsBuiltByType[i][j].toArray(new Integer[rounds.size()]);
-				robotsKilledByTypeArray[j] = robotsKilledByType[i][j].toArray(new Integer[rounds.size()]);
-			}
-			teamResults[i].setRobotsByType(robotsByTypeArray);
-			teamResults[i].setActiveRobotsByType(activeRobotsByTypeArray);
-			teamResults[i].setRobotsBuiltByType(robotsBuiltByTypeArray);
-			teamResults[i].setRobotsKilledByType(robotsKilledByTypeArray);
-
-		}
-
-		matchResult.setRounds(new Long(rounds.size()));
+		matchResult.setRounds(new Long(roundNum));
 		matchResult.setWinner(convertTeam(footer.getWinner()));
 		switch (gameStats.getDominationFactor()) {
 		case DESTROYED:
@@ -344,62 +313,88 @@ public class GameData extends Proxy {
 			matchResult.setWinCondition(WIN_CONDITION.ENERGON);
 			break;
 		}
-		matchResult.setaResult(teamResults[Team.A.ordinal()]);
-		matchResult.setbResult(teamResults[Team.B.ordinal()]);
+		matchResult.setaResult(teamStats[Team.A.ordinal()].toResult());
+		matchResult.setbResult(teamStats[Team.B.ordinal()].toResult());
 		return matchResult;
 	}
 
-	private TEAM convertTeam(Team battlecodeTeam) {
-		switch (battlecodeTeam) {
-		case A:
-			return TEAM.A;
-		case B:
-			return TEAM.B;
-		default:
-			return null;
+	private void archonAdded(int archon) {
+		IntList teamArchons = archons[robots.getTeamIndex(archon)];
+		MapLocation location = robots.getLocation(archon);
+		for (int i = 0; i < teamArchons.size(); i++) {
+			int other = teamArchons.get(i);
+			int d = location.distanceSquaredTo(robots.getLocation(other));
+			if (d > 0 && d < robots.getNearestArchonDist(other)) {
+				robots.setNearestArchon(other, archon, d);
+			}
 		}
+		teamArchons.addSorted(archon);
+		updateNearestArchon(archon);
 	}
 
-	private class RobotStat {
-		public final RobotType type;
-		public final Team team;
-		private double flux;
-		private boolean on;
-		private MapLocation location;
-
-		public RobotStat(Team team, RobotType type) {
-			this.team = team;
-			this.type = type;
-		}
-
-		public void setFlux(double flux) {
-			this.flux = flux;
-		}
-
-		public void setLocation(MapLocation location) {
-			this.location = location;
+	private void archonRemoved(int archon) {
+		IntList teamArchons = archons[robots.getTeamIndex(archon)];
+		teamArchons.removeValue(archon);
+		for (int i = 0; i < teamArchons.size(); i++) {
+			int other = teamArchons.get(i);
+			if (robots.getNearestArchon(other) == archon) {
+				updateNearestArchon(other);
+			}
 		}
+	}
 
-		public MapLocation getLocation() {
-			return location;
+	private void archonMoved(int archon) {
+		IntList teamArchons = archons[robots.getTeamIndex(archon)];
+		MapLocation location = robots.getLocation(archon);
+		for (int i = 0; i < teamArchons.size(); i++) {
+			int other = teamArchons.get(i);
+			if (other == archon) {
+				continue;
+			}
+			int d = location.distanceSquaredTo(robots.getLocation(other));
+			if (robots.getNearestArchon(other) == archon) {
+				if (d > 0 && d <= robots.getNearestArchonDist(other)) {
+					robots.setNearestArchon(other, archon, d);
+				} else {
+					// The nearest archon moved away, something else may be nearer now
+					updateNearestArchon(other);
+				}
+			} else if (d > 0 && d < robots.getNearestArchonDist(other)) {
+				robots.setNearestArchon(other, archon, d);
+			}
 		}
+		updateNearestArchon(archon);
+	}
 
-		public boolean isOn() {
-			return on;
+	/**
+	 * Recompute the distance to the nearest archon on the same team.
+	 * This algorithm is copy/pasted from InternalRobot
+	 */
+	private void updateNearestArchon(int archon) {
+		IntList teamArchons = archons[robots.getTeamIndex(archon)];
+		MapLocation location = robots.getLocation(archon);
+		int nearest = -1;
+		int d, dmin = GameConstants.PRODUCTION_PENALTY_R2;
+		for (int i = 0; i < teamArchons.size(); i++) {
+			int other = teamArchons.get(i);
+			d = location.distanceSquaredTo(robots.getLocation(other));
+			if(d>0&&d<=dmin) {
+				dmin=d;
+				nearest = other;
+			}
 		}
+		robots.setNearestArchon(archon, nearest, dmin);
+	}
 
-		/**
-		 * 
-		 * @return true if the status has changed
-		 */
-		public boolean recalculateOnStatus() {
-			boolean newOn = type == RobotType.ARCHON || type == RobotType.TOWER || flux > GameConstants.UNIT_UPKEEP;
-			if (newOn != on) {
-				on = newOn;
-				return true;
-			}
-			return false;
+	private TEAM convertTeam(Team battlecodeTeam) {
+		switch (battlecodeTeam) {
+		case A:
+			return TEAM.A;
+		case B:
+			return TEAM.B;
+		default:
+			return null;
 		}
 	}
 
-}
\ No newline at end of file
+}
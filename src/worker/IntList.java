@@ -0,0 +1,63 @@
+package worker;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of ints.  Values are kept in the order they were added, or in ascending order if
+ * they are only added with {@link #addSorted(int)}
+ * @author stevearc
+ *
+ */
+class IntList {
+	private int[] values = new int[16];
+	private int size;
+
+	public void add(int value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = value;
+	}
+
+	/**
+	 * Insert a value before the first larger value
+	 * @param value
+	 */
+	public void addSorted(int value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		int i = size;
+		while (i > 0 && values[i - 1] > value) {
+			values[i] = values[i - 1];
+			i--;
+		}
+		values[i] = value;
+		size++;
+	}
+
+	/**
+	 * Remove the first occurrence of a value
+	 * @param value
+	 * @return true if the value was in the list
+	 */
+	public boolean removeValue(int value) {
+		for (int i = 0; i < size; i++) {
+			if (values[i] == value) {
+				System.arraycopy(values, i + 1, values, i, size - i - 1);
+				size--;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int get(int index) {
+		return values[index];
+	}
+
+	public int size() {
+		return size;
+	}
+
+}
@@ -0,0 +1,193 @@
+package worker;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+
+import common.Config;
+
+/**
+ * Runs the matches of one core inside the worker JVM.  The core gets its own copy of
+ * battlecode-server.jar from a class loader that looks there before asking its parent, so the
+ * engine's static state, including its global Config, isn't shared with the matches running on
+ * other cores.  Output goes to the match's file through {@link MatchOutput} instead of replacing
+ * System.out, so cores can run matches at the same time.
+ *
+ * The engine is only reached through reflection, since its classes are different from the ones
+ * this class was compiled against.
+ * @author stevearc
+ *
+ */
+public class MatchContext {
+	private static Logger _log = Logger.getLogger(MatchContext.class);
+	private final int core;
+	private URLClassLoader loader;
+	private boolean stale;
+	private boolean inUse;
+
+	public MatchContext(int core) {
+		this.core = core;
+	}
+
+	/**
+	 * Loads classes from its own jars first, and only asks the parent for classes it doesn't have
+	 */
+	private static class ChildFirstClassLoader extends URLClassLoader {
+
+		public ChildFirstClassLoader(URL[] urls, ClassLoader parent) {
+			super(urls, parent);
+		}
+
+		@Override
+		protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			Class<?> c = findLoadedClass(name);
+			if (c == null && !name.startsWith("java.")) {
+				try {
+					c = findClass(name);
+				} catch (ClassNotFoundException e) {
+				}
+			}
+			if (c == null) {
+				c = getParent().loadClass(name);
+			}
+			if (resolve) {
+				resolveClass(c);
+			}
+			return c;
+		}
+	}
+
+	/**
+	 * Run a match on this core.  Blocks until the match is over.
+	 * @param seed
+	 * @param mapName
+	 * @param team_a
+	 * @param team_b
+	 * @throws IOException
+	 */
+	public void runMatch(long seed, String mapName, String team_a, String team_b) throws IOException {
+		URLClassLoader engine = acquireLoader();
+		try {
+			MatchOutput.install();
+			// The output can get very long, so compress it as it is written
+			PrintStream fileStream = new PrintStream(new GZIPOutputStream(new FileOutputStream(seed + mapName + ".out.gz")));
+			MatchOutput.redirect(fileStream);
+			try {
+				File seededMap = MatchRunner.writeSeededMap(seed, mapName);
+				runServer(engine, seed + mapName, "A" + team_a, "B" + team_b);
+				if (!seededMap.delete()) {
+					_log.warn("Error deleting file: " + seededMap.getPath());
+				}
+			} finally {
+				MatchOutput.redirect(null);
+				// Closing writes the gzip trailer
+				fileStream.close();
+			}
+		} finally {
+			releaseLoader(engine);
+		}
+	}
+
+	/**
+	 * Load battlecode-server.jar again before the next match, because something it may have
+	 * loaded has changed
+	 */
+	public synchronized void recycle() {
+		stale = true;
+	}
+
+	/**
+	 * A loader is only used by one match at a time.  A match that was stopped can't be ended from 
+	 * here, and keeps running until it finishes by itself, so the next match gets a new loader 
+	 * instead of sharing the stopped match's engine.
+	 */
+	private synchronized URLClassLoader acquireLoader() throws IOException {
+		if (loader == null || stale || inUse) {
+			if (loader != null && !inUse) {
+				close(loader);
+			}
+			URL jar = new File(Config.battlecodeServerFile).toURI().toURL();
+			loader = new ChildFirstClassLoader(new URL[] {jar}, MatchContext.class.getClassLoader());
+			stale = false;
+			_log.info("Loaded battlecode-server.jar for core " + core);
+		}
+		inUse = true;
+		return loader;
+	}
+
+	/**
+	 * Called when a match is done with its loader.  Loaders that have been replaced are closed.
+	 */
+	private synchronized void releaseLoader(URLClassLoader used) {
+		if (used == loader) {
+			inUse = false;
+		} else {
+			close(used);
+		}
+	}
+
+	private static void close(URLClassLoader old) {
+		// URLClassLoader can only be closed on Java 7 and later
+		if (old instanceof Closeable) {
+			try {
+				((Closeable) old).close();
+			} catch (IOException e) {
+				_log.warn("Error closing battlecode-server.jar", e);
+			}
+		}
+	}
+
+	/**
+	 * Same as the battlecode setup in {@link MatchRunner#runMatch(long, String, String, String)},
+	 * with the engine from another class loader
+	 */
+	private static void runServer(ClassLoader engine, String matchName, String teamA, String teamB) throws IOException {
+		try {
+			Class<?> configClass = engine.loadClass("battlecode.server.Config");
+			Class<?> controllerClass = engine.loadClass("battlecode.server.controller.Controller");
+			Class<?> proxyClass = engine.loadClass("battlecode.server.proxy.Proxy");
+			Class<?> modeClass = engine.loadClass("battlecode.server.Server$Mode");
+			Class<?> serverClass = engine.loadClass("battlecode.server.Server");
+
+			Object bcConfig = configClass.getMethod("getGlobalConfig").invoke(null);
+			String[][] settings = {
+					{"bc.engine.debug-methods", "false"},
+					{"bc.game.maps", matchName},
+					{"bc.game.team-a", teamA},
+					{"bc.game.team-b", teamB},
+					{"bc.server.mode", "headless"},
+			};
+			for (String[] setting: settings) {
+				configClass.getMethod("set", String.class, String.class).invoke(bcConfig, setting[0], setting[1]);
+			}
+			Object controller = engine.loadClass("battlecode.server.controller.ControllerFactory")
+					.getMethod("createHeadlessController", configClass).invoke(null, bcConfig);
+			Object proxies = Array.newInstance(proxyClass, 1);
+			Array.set(proxies, 0, engine.loadClass("battlecode.server.proxy.ProxyFactory")
+					.getMethod("createProxyFromFile", String.class).invoke(null, matchName + ".rms"));
+			Object bcServer = serverClass.getConstructor(configClass, modeClass, controllerClass, proxies.getClass())
+					.newInstance(bcConfig, modeClass.getField("HEADLESS").get(null), controller, proxies);
+			((Observable) controller).addObserver((Observer) bcServer);
+			((Runnable) bcServer).run();
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Error running match " + matchName, e.getCause());
+		} catch (Exception e) {
+			throw new IOException("Error starting battlecode for match " + matchName, e);
+		}
+	}
+
+}
@@ -0,0 +1,216 @@
+package worker;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * Installed as System.out and System.err so that matches running in this JVM at the same time can
+ * each write their output to their own file.  A thread writes to the stream it was given with
+ * {@link #redirect(PrintStream)}, and threads it starts inherit that stream, so the robots of a
+ * match write to the match's output too.  Everything else goes to the original stream.
+ * @author stevearc
+ *
+ */
+class MatchOutput extends PrintStream {
+	private static final InheritableThreadLocal<PrintStream> target = new InheritableThreadLocal<PrintStream>();
+	private static boolean installed;
+	private final PrintStream fallback;
+
+	private MatchOutput(PrintStream fallback) {
+		super(fallback);
+		this.fallback = fallback;
+	}
+
+	/**
+	 * Replace System.out and System.err.  Only the first call does anything.
+	 */
+	public static synchronized void install() {
+		if (!installed) {
+			System.setOut(new MatchOutput(System.out));
+			System.setErr(new MatchOutput(System.err));
+			installed = true;
+		}
+	}
+
+	/**
+	 * Send the output of this thread, and of the threads it starts from now on, to a stream
+	 * @param stream The stream to write to, or null to write to the original stream again
+	 */
+	public static void redirect(PrintStream stream) {
+		target.set(stream);
+	}
+
+	private PrintStream current() {
+		PrintStream stream = target.get();
+		return stream == null ? fallback : stream;
+	}
+
+	@Override
+	public void flush() {
+		current().flush();
+	}
+
+	@Override
+	public void close() {
+		current().close();
+	}
+
+	@Override
+	public boolean checkError() {
+		return current().checkError();
+	}
+
+	@Override
+	public void write(int b) {
+		current().write(b);
+	}
+
+	@Override
+	public void write(byte[] buf, int off, int len) {
+		current().write(buf, off, len);
+	}
+
+	@Override
+	public void write(byte[] b) throws IOException {
+		current().write(b);
+	}
+
+	@Override
+	public void print(boolean b) {
+		current().print(b);
+	}
+
+	@Override
+	public void print(char c) {
+		current().print(c);
+	}
+
+	@Override
+	public void print(int i) {
+		current().print(i);
+	}
+
+	@Override
+	public void print(long l) {
+		current().print(l);
+	}
+
+	@Override
+	public void print(float f) {
+		current().print(f);
+	}
+
+	@Override
+	public void print(double d) {
+		current().print(d);
+	}
+
+	@Override
+	public void print(char[] s) {
+		current().print(s);
+	}
+
+	@Override
+	public void print(String s) {
+		current().print(s);
+	}
+
+	@Override
+	public void print(Object obj) {
+		current().print(obj);
+	}
+
+	@Override
+	public void println() {
+		current().println();
+	}
+
+	@Override
+	public void println(boolean x) {
+		current().println(x);
+	}
+
+	@Override
+	public void println(char x) {
+		current().println(x);
+	}
+
+	@Override
+	public void println(int x) {
+		current().println(x);
+	}
+
+	@Override
+	public void println(long x) {
+		current().println(x);
+	}
+
+	@Override
+	public void println(float x) {
+		current().println(x);
+	}
+
+	@Override
+	public void println(double x) {
+		current().println(x);
+	}
+
+	@Override
+	public void println(char[] x) {
+		current().println(x);
+	}
+
+	@Override
+	public void println(String x) {
+		current().println(x);
+	}
+
+	@Override
+	public void println(Object x) {
+		current().println(x);
+	}
+
+	@Override
+	public PrintStream printf(String format, Object... args) {
+		current().printf(format, args);
+		return this;
+	}
+
+	@Override
+	public PrintStream printf(Locale l, String format, Object... args) {
+		current().printf(l, format, args);
+		return this;
+	}
+
+	@Override
+	public PrintStream format(String format, Object... args) {
+		current().format(format, args);
+		return this;
+	}
+
+	@Override
+	public PrintStream format(Locale l, String format, Object... args) {
+		current().format(l, format, args);
+		return this;
+	}
+
+	@Override
+	public PrintStream append(CharSequence csq) {
+		current().append(csq);
+		return this;
+	}
+
+	@Override
+	public PrintStream append(CharSequence csq, int start, int end) {
+		current().append(csq, start, end);
+		return this;
+	}
+
+	@Override
+	public PrintStream append(char c) {
+		current().append(c);
+		return this;
+	}
+
+}
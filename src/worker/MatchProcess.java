@@ -0,0 +1,180 @@
+package worker;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import main.Main;
+
+import org.apache.log4j.Logger;
+
+import common.Config;
+
+/**
+ * A JVM that stays up between the matches of one core, so a match doesn't pay for starting java,
+ * loading battlecode-server.jar and warming up the JIT.  Matches are sent to the child over its
+ * stdin one line at a time, and it answers on its stdout when each one is finished.
+ *
+ * The child is replaced after {@link Config#MATCH_PROCESS_MAX_MATCHES} matches, after a match
+ * fails, and after {@link #recycle()}.  It exits by itself when the worker goes away and its stdin
+ * is closed.
+ * @author stevearc
+ *
+ */
+public class MatchProcess {
+	private static Logger _log = Logger.getLogger(MatchProcess.class);
+	// Starts the child's answer to a match, so it can be told apart from anything else it prints
+	private static final String DONE = "MATCH_DONE ";
+	private static final String OK = "ok";
+	private final int core;
+	private Process process;
+	private BufferedWriter toChild;
+	private BufferedReader fromChild;
+	private int matchesRun;
+	private boolean stale;
+
+	public MatchProcess(int core) {
+		this.core = core;
+	}
+
+	/**
+	 * Run a match in the child JVM, starting one if needed.  Blocks until the match is over.
+	 * @param seed
+	 * @param mapName
+	 * @param team_a
+	 * @param team_b
+	 * @throws IOException If the match failed or the child died.  A new child is started for the
+	 * next match.
+	 */
+	public void runMatch(long seed, String mapName, String team_a, String team_b) throws IOException {
+		Process child;
+		BufferedWriter out;
+		BufferedReader in;
+		synchronized (this) {
+			if (process != null && (stale || matchesRun >= Config.MATCH_PROCESS_MAX_MATCHES)) {
+				destroy();
+			}
+			if (process == null) {
+				start();
+			}
+			matchesRun++;
+			child = process;
+			out = toChild;
+			in = fromChild;
+		}
+		boolean succeeded = false;
+		try {
+			out.write(seed + "\t" + mapName + "\t" + team_a + "\t" + team_b);
+			out.newLine();
+			out.flush();
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith(DONE)) {
+					String result = line.substring(DONE.length());
+					if (!result.equals(OK)) {
+						throw new IOException("Match " + seed + mapName + " failed: " + result);
+					}
+					succeeded = true;
+					return;
+				}
+				_log.debug("Match process " + core + ": " + line);
+			}
+			throw new EOFException("Match process " + core + " exited");
+		} finally {
+			if (!succeeded) {
+				synchronized (this) {
+					// Don't trust a JVM that a match failed in
+					if (process == child) {
+						destroy();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Start a new JVM for the next match, because something it may have loaded has changed
+	 */
+	public synchronized void recycle() {
+		stale = true;
+	}
+
+	/**
+	 * Kill the child JVM, along with any match it is running
+	 */
+	public synchronized void destroy() {
+		if (process == null) {
+			return;
+		}
+		process.destroy();
+		try {
+			toChild.close();
+		} catch (IOException e) {
+		}
+		try {
+			fromChild.close();
+		} catch (IOException e) {
+		}
+		process = null;
+		toChild = null;
+		fromChild = null;
+		matchesRun = 0;
+		stale = false;
+	}
+
+	private void start() throws IOException {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		// Pass on the VM args that run.sh gave us
+		for (String arg: ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if (arg.startsWith("-X")) {
+				command.add(arg);
+			}
+		}
+		command.add("-jar");
+		command.add("bs-tester.jar");
+		command.add("-" + Main.matchProcessArg);
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectErrorStream(true);
+		process = builder.start();
+		toChild = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), "UTF-8"));
+		fromChild = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+		_log.info("Started match process for core " + core);
+	}
+
+	/**
+	 * Run the matches sent by a MatchProcess until stdin is closed.  This is the main loop of the
+	 * child JVM.
+	 */
+	public static void serve() {
+		// MatchRunner.runMatch redirects System.out while a match runs
+		PrintStream reply = System.out;
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] args = line.split("\t");
+				String result = OK;
+				try {
+					MatchRunner.runMatch(Long.parseLong(args[0]), args[1], args[2], args[3]);
+				} catch (Exception e) {
+					_log.error("Error running match in match process: " + line, e);
+					result = String.valueOf(e).replace('\n', ' ');
+				}
+				reply.println(DONE + result);
+				reply.flush();
+			}
+		} catch (IOException e) {
+			_log.error("Error reading matches from worker", e);
+		}
+	}
+
+}
@@ -9,20 +9,16 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
-import java.util.Collection;
-import java.util.Enumeration;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.zip.GZIPOutputStream;
 
-import main.Main;
 import model.BSScrimmageSet;
 import model.MatchResultImpl;
 import model.STATUS;
 import model.ScrimmageMatchResult;
 import model.TEAM;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
 
 import battlecode.server.Server;
@@ -45,11 +41,12 @@ public class MatchRunner implements Runnable {
 	private static Logger _log = Logger.getLogger(MatchRunner.class);
 	private Worker worker;
 	private boolean running;
+	private boolean started;
 	private NetworkMatch match;
 	private BSScrimmageSet scrim;
 	private byte[] scrimData;
 	private int core;
-	private Process currentProcess;
+	private volatile MatchProcess currentProcess;
 
 	public MatchRunner(Worker worker, NetworkMatch match, int core) {
 		this.match = match;
@@ -77,75 +74,28 @@ public class MatchRunner implements Runnable {
 	 */
 	public void stop() {
 		running = false;
-		if (currentProcess != null) {
-			currentProcess.destroy();
+		MatchProcess process = currentProcess;
+		if (process != null) {
+			process.destroy();
 		}
 	}
 	
 	public boolean isRunning() {
 		return running;
 	}
-
-	private static void extractAndRenameTeam(String jarfile, String team) throws IOException {
-		JarFile jar = new JarFile(jarfile);
-		// First search for the package name
-		Enumeration<JarEntry> searchEntries = jar.entries();
-		String packageName = null;
-		while (searchEntries.hasMoreElements() && packageName == null) {
-			JarEntry file = searchEntries.nextElement();
-			if (file.getName().endsWith("RobotPlayer.java")) {
-				packageName = file.getName().substring(0, file.getName().length() - "/RobotPlayer.java".length());
-			}
-		}
-		if (packageName == null) {
-			throw new IOException("Cannot find package name; no file ends in RobotPlayer.java");
-		}
-		
-		Enumeration<JarEntry> entries = jar.entries();
-		while (entries.hasMoreElements()) {
-			JarEntry file = entries.nextElement();
-			File f = new File(Config.teamsDir + "tmp" + File.separator + file.getName());
-			if (file.isDirectory()) {
-				f.mkdir();
-				continue;
-			}
-			BufferedReader br = new BufferedReader(new InputStreamReader(jar.getInputStream(file)));
-			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f)));
-			String line;
-			while ((line = br.readLine()) != null) {
-				bw.write(line.replaceAll("package " + packageName, "package " + team).replaceAll("import " + packageName, "import " + team));
-				bw.newLine();
-			}
-			br.close();
-			bw.close();
-		}
+	
+	public boolean isStarted() {
+		return started;
 	}
 
-	public static void compilePlayer(String teamName, String jarFile) throws IOException {
-		File aPlayer = new File(Config.teamsDir + teamName);
-		if (!aPlayer.exists()) {
-			_log.info("Compiling player " + teamName);
-			aPlayer.mkdir();
-			File workingDir = new File(Config.teamsDir + "tmp");
-			workingDir.mkdir();
-			extractAndRenameTeam(jarFile, teamName);
-			Collection<File> srcFiles = FileUtils.listFiles(workingDir, new String[] {"java"}, true);
-			String[] srcFileNames = new String[srcFiles.size()];
-			int index = 0;
-			for (File f: srcFiles) {
-				srcFileNames[index++] = f.getAbsolutePath();
-			}
-			String[] javacArgs = new String[4 + srcFiles.size()];
-			javacArgs[0] = "-classpath";
-			javacArgs[1] = Config.battlecodeServerFile;
-			javacArgs[2] = "-d";
-			javacArgs[3] = Config.teamsDir;
-			System.arraycopy(srcFileNames, 0, javacArgs, 4, srcFiles.size());
-			com.sun.tools.javac.Main.compile(javacArgs);
-			FileUtils.deleteDirectory(workingDir);
-		}
+	/**
+	 * Start running the match in a new thread
+	 */
+	public void start() {
+		started = true;
+		new Thread(this).start();
 	}
-	
+
 	/**
 	 * Runs the battlecode match
 	 */
@@ -164,8 +114,8 @@ public class MatchRunner implements Runnable {
 	private void analyzeMatch() {
 		_log.info("Analyzing: " + scrim.getFileName());
 		// Read in the replay file
+		GameAnalyzer ga = new GameAnalyzer(scrimData);
 		try {
-			GameAnalyzer ga = new GameAnalyzer(scrimData);
 			List<ScrimmageMatchResult> results = ga.analyzeScrimmageMatches();
 			if (results.isEmpty()) {
 				_log.error("Analysis turned up no results!");
@@ -185,17 +135,25 @@ public class MatchRunner implements Runnable {
 			scrim.setPlayerB(ga.getTeamB());
 			scrim.setStatus(STATUS.COMPLETE);
 			
+			// Stream the observations to the master before sending the results
+			List<File> observationFiles = ga.getObservationFiles();
+			for (int i = 0; i < results.size() && running; i++) {
+				results.get(i).setObservationsUpload(worker.uploadScrimmageFile(scrim, observationFiles.get(i), 
+						"-obs" + i + ".out.gz"));
+			}
+			
 			if (running) {
 				_log.info("Finished analyzing: " + scrim.getFileName());
 				worker.matchAnalyzed(this, core, scrim, STATUS.COMPLETE);
 			}
-			ga.close();
 		} catch (IOException e) {
 			_log.error("Error parsing scrimmage match data", e);
 			worker.matchAnalyzed(this, core, scrim, STATUS.CANCELED);
 		} catch (ClassNotFoundException e) {
 			_log.error("Error parsing scrimmage match data", e);
 			worker.matchAnalyzed(this, core, scrim, STATUS.CANCELED);
+		} finally {
+			ga.close();
 		}
 	}
 	
@@ -208,7 +166,7 @@ public class MatchRunner implements Runnable {
 			}
 			if (running) {
 				worker.matchFinish(this, core, match, STATUS.COMPLETE, 
-						MatchResultImpl.constructMockMatchResult(), new byte[0], new byte[0], "Mock match");
+						MatchResultImpl.constructMockMatchResult(), null, null, null);
 			}
 			return;
 		}
@@ -217,18 +175,23 @@ public class MatchRunner implements Runnable {
 		String team_b = match.team_b.replaceAll("\\W", "_");
 
 		try {
-			// Run the match inside this JVM if we're the first core.  Otherwise we need to start a new process
-			if (core == 0) {
+			// Run the match in the core's own copy of the engine, or inside this JVM if we're the first core.  Otherwise
+			// run it in the core's match process
+			if (Config.ISOLATED_MATCHES) {
+				worker.getMatchContext(core).runMatch(match.seed, match.map.getMapName(), team_a, team_b);
+			} else if (core == 0) {
 				runMatch(match.seed, match.map.getMapName(), team_a, team_b);
 			} else {
-				_log.debug("Forking process");
-				Runtime run = Runtime.getRuntime();
-				Process p = run.exec(new String[] {"/bin/bash", "run.sh", "-" + Main.runMatchArg, match.seed + "", match.map.getMapName(), team_a, team_b});
-				p.waitFor();
+				currentProcess = worker.getMatchProcess(core);
+				try {
+					currentProcess.runMatch(match.seed, match.map.getMapName(), team_a, team_b);
+				} finally {
+					currentProcess = null;
+				}
 			}
 			
 			String matchFile = match.seed + match.map.getMapName() + ".rms";
-			String outputFile = match.seed + match.map.getMapName() + ".out";
+			String outputFile = match.seed + match.map.getMapName() + ".out.gz";
 			
 			if (!running) {
 				return;
@@ -236,40 +199,45 @@ public class MatchRunner implements Runnable {
 
 			// Read in the replay file
 			GameAnalyzer ga = new GameAnalyzer(matchFile);
-			List<MatchResultImpl> results = ga.analyzeMatches();
-			if (results.size() != 1) {
-				_log.error("Number of MatchResults is incorrect");
-				worker.matchFailed(this, core, match);
-				return;
-			}
-			ga.close();
-			MatchResultImpl result = results.get(0);
-			
-			byte[] data;
 			try {
-				data = BSUtil.getFileData(matchFile);
-			} catch (IOException e) {
-				if (running) {
-					_log.error("Failed to read " + matchFile, e);
+				List<MatchResultImpl> results = ga.analyzeMatches();
+				if (results.size() != 1) {
+					_log.error("Number of MatchResults is incorrect");
 					worker.matchFailed(this, core, match);
+					return;
 				}
-				return;
-			}
-			
-			byte[] outputData;
-			try {
-				outputData = BSUtil.getFileData(outputFile);
-			} catch (IOException e) {
+				MatchResultImpl result = results.get(0);
+				
+				// Stream the files to the master before sending the results.  The replay is already gzipped.
+				String replayUpload;
+				String outputUpload;
+				String observationsUpload;
+				try {
+					replayUpload = worker.uploadMatchFile(match, matchFile, ".rms");
+					outputUpload = worker.uploadMatchFile(match, outputFile, ".out.gz");
+					observationsUpload = worker.uploadMatchFile(match, ga.getObservationFiles().get(0).getPath(), 
+							"-obs.out.gz");
+				} catch (IOException e) {
+					if (running) {
+						_log.error("Failed to upload match files", e);
+						worker.matchFailed(this, core, match);
+					}
+					return;
+				}
+				// Hash the replay here, so the master doesn't have to read it again
+				try {
+					result.setReplayHash(BSUtil.SHA1File(matchFile));
+				} catch (NoSuchAlgorithmException e) {
+					_log.warn("Error hashing match file", e);
+				}
+				
 				if (running) {
-					_log.error("Failed to read " + outputFile, e);
-					worker.matchFailed(this, core, match);
+					_log.info("Finished: " + match);
+					worker.matchFinish(this, core, match, STATUS.COMPLETE, result, replayUpload, outputUpload, 
+							observationsUpload);
 				}
-				return;
-			}
-			
-			if (running) {
-				_log.info("Finished: " + match);
-				worker.matchFinish(this, core, match, STATUS.COMPLETE, result, data, outputData, ga.getObservations());
+			} finally {
+				ga.close();
 			}
 		} catch (IOException e) {
 			if (running) {
@@ -282,21 +250,50 @@ public class MatchRunner implements Runnable {
 				_log.error("Failed to read match file", e);
 				worker.matchFailed(this, core, match);
 			}
-		} catch (InterruptedException e) {
-			if (running) {
-				_log.error("Interrupted while running match", e);
-				worker.matchFailed(this, core, match);
-			}
 		}
 	}
 	
 	public static void runMatch(long seed, String mapName, String team_a, String team_b) throws IOException {
 		PrintStream out = System.out;
 		PrintStream err = System.err;
-		PrintStream fileStream = new PrintStream(new File(seed + mapName + ".out"));
+		// The output can get very long, so compress it as it is written
+		PrintStream fileStream = new PrintStream(new GZIPOutputStream(new FileOutputStream(seed + mapName + ".out.gz")));
 		System.setOut(fileStream);
 		System.setErr(fileStream);
-		// Construct the map file with the appropriate seeeeeed
+		try {
+			File seededMap = writeSeededMap(seed, mapName);
+		
+			battlecode.server.Config bcConfig = battlecode.server.Config.getGlobalConfig();
+			bcConfig.set("bc.engine.debug-methods", "false");
+			bcConfig.set("bc.game.maps", seed + mapName);
+			bcConfig.set("bc.game.team-a", "A" + team_a);
+			bcConfig.set("bc.game.team-b", "B" + team_b);
+			bcConfig.set("bc.server.mode", "headless");
+			Controller controller = ControllerFactory
+					.createHeadlessController(bcConfig);
+			Proxy[] proxies = new Proxy[] { 
+					ProxyFactory.createProxyFromFile(seed + mapName + ".rms"),
+			};
+			Server bcServer = new Server(bcConfig, Server.Mode.HEADLESS, controller, proxies);
+			controller.addObserver(bcServer);
+			bcServer.run();
+		
+			if (!seededMap.delete()) {
+				_log.warn("Error deleting file: " + seededMap.getPath());
+			}
+		} finally {
+			System.setOut(out);
+			System.setErr(err);
+			// Closing writes the gzip trailer
+			fileStream.close();
+		}
+	}
+
+	/**
+	 * Construct the map file with the appropriate seeeeeed
+	 * @return The seeded map, which the match is run on as seed + mapName
+	 */
+	static File writeSeededMap(long seed, String mapName) throws IOException {
 		File seededMap = new File(Config.mapsDir + seed + mapName + ".xml");
 		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(new File(Config.mapsDir + mapName + ".xml"))));
 		BufferedWriter fos = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(seededMap)));
@@ -307,27 +304,7 @@ public class MatchRunner implements Runnable {
 		}
 		br.close();
 		fos.close();
-		
-		battlecode.server.Config bcConfig = battlecode.server.Config.getGlobalConfig();
-		bcConfig.set("bc.engine.debug-methods", "false");
-		bcConfig.set("bc.game.maps", seed + mapName);
-		bcConfig.set("bc.game.team-a", "A" + team_a);
-		bcConfig.set("bc.game.team-b", "B" + team_b);
-		bcConfig.set("bc.server.mode", "headless");
-		Controller controller = ControllerFactory
-				.createHeadlessController(bcConfig);
-		Proxy[] proxies = new Proxy[] { 
-				ProxyFactory.createProxyFromFile(seed + mapName + ".rms"),
-		};
-		Server bcServer = new Server(bcConfig, Server.Mode.HEADLESS, controller, proxies);
-		controller.addObserver(bcServer);
-		bcServer.run();
-		
-		if (!seededMap.delete()) {
-			_log.warn("Error deleting file: " + seededMap.getPath());
-		}
-		System.setOut(out);
-		System.setErr(err);
+		return seededMap;
 	}
 
 	@Override
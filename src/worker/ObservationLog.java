@@ -0,0 +1,93 @@
+package worker;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.SequenceInputStream;
+import java.io.Writer;
+
+import common.IndexedGzip;
+
+/**
+ * Spools the observations of one game to a temporary file as they are read, so a team that makes
+ * a lot of observations doesn't fill up memory.  The file is only created once there is an
+ * observation.
+ *
+ * Observations are made from signal handlers, which can't throw, so the first write error is kept
+ * and thrown from {@link #writeCompressed(String, File)}.
+ * @author stevearc
+ *
+ */
+class ObservationLog {
+	private File file;
+	private Writer writer;
+	private IOException error;
+	private boolean deleted;
+
+	public synchronized void append(String line) {
+		if (error != null || deleted) {
+			return;
+		}
+		try {
+			if (writer == null) {
+				file = File.createTempFile("observations", ".out");
+				writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+			}
+			writer.write(line);
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+
+	/**
+	 * Gzip the header followed by the observations into a file, then delete the spooled
+	 * observations
+	 * @param header
+	 * @param target
+	 * @throws IOException If the observations could not be written
+	 */
+	public synchronized void writeCompressed(String header, File target) throws IOException {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+		if (error != null) {
+			throw error;
+		}
+		InputStream in = new ByteArrayInputStream(header.getBytes("UTF-8"));
+		if (file != null) {
+			in = new SequenceInputStream(in, new FileInputStream(file));
+		}
+		try {
+			// Written so the web server can show a page from the middle without unzipping the rest
+			IndexedGzip.write(in, target);
+		} finally {
+			in.close();
+		}
+		delete();
+	}
+
+	/**
+	 * Delete the spooled observations.  Nothing is recorded after this.
+	 */
+	public synchronized void delete() {
+		deleted = true;
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+			}
+			writer = null;
+		}
+		if (file != null) {
+			file.delete();
+			file = null;
+		}
+	}
+
+}
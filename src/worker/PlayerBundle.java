@@ -0,0 +1,193 @@
+package worker;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import common.Config;
+import common.FileHashCache;
+
+/**
+ * A player compiled by the master under both of the package names a match can give it, so the
+ * workers don't each have to run javac.  The bundle is a zip of the A and B packages, along with
+ * the key of the player jar and battlecode-server.jar it was compiled from.  It is sent to the
+ * workers along with the player jar.
+ * @author stevearc
+ *
+ */
+public class PlayerBundle {
+	private static Logger _log = Logger.getLogger(PlayerBundle.class);
+	private static final String KEY_ENTRY = "bundle-key";
+
+	/**
+	 *
+	 * @param player
+	 * @return The path of the bundle of a player
+	 */
+	public static String getFileName(String player) {
+		return Config.compiledPlayersDir + player + ".zip";
+	}
+
+	/**
+	 *
+	 * @param hashCache
+	 * @param player
+	 * @return The key that a current bundle of the player has
+	 * @throws IOException If the player jar or battlecode-server.jar can't be read
+	 */
+	public static String getKey(FileHashCache hashCache, String player) throws IOException {
+		try {
+			return hashCache.bsHashDependency(Config.teamsDir + player + ".jar") + ":" +
+					hashCache.bsHashDependency(Config.battlecodeServerFile);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("Could not find SHA1 algorithm", e);
+		}
+	}
+
+	/**
+	 *
+	 * @param player
+	 * @return The key of the player's bundle, or null if it has none
+	 */
+	public static String readKey(String player) {
+		File file = new File(getFileName(player));
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			ZipFile zip = new ZipFile(file);
+			try {
+				ZipEntry entry = zip.getEntry(KEY_ENTRY);
+				if (entry == null) {
+					return null;
+				}
+				InputStream in = zip.getInputStream(entry);
+				try {
+					return IOUtils.toString(in, "UTF-8");
+				} finally {
+					in.close();
+				}
+			} finally {
+				zip.close();
+			}
+		} catch (IOException e) {
+			_log.warn("Error reading compiled player " + file.getPath(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Compile a player into its bundle, replacing the old one
+	 * @param player
+	 * @param key The current key of the player
+	 * @param diagnostics The messages from javac are added to this
+	 * @return false if javac reported errors
+	 * @throws IOException
+	 */
+	public static boolean create(String player, String key, StringBuilder diagnostics) throws IOException {
+		String name = player.replaceAll("\\W", "_");
+		String jarFile = Config.teamsDir + player + ".jar";
+		File workingDir = File.createTempFile("player", "");
+		workingDir.delete();
+		workingDir.mkdir();
+		try {
+			List<PlayerCompiler> compilers = new ArrayList<PlayerCompiler>();
+			compilers.add(new PlayerCompiler("A" + name, jarFile, workingDir));
+			compilers.add(new PlayerCompiler("B" + name, jarFile, workingDir));
+			boolean compiled = PlayerCompiler.compileAll(compilers);
+			// Both packages come from the same sources, so they have the same messages
+			diagnostics.append(compilers.get(0).getDiagnostics());
+			if (!compiled) {
+				return false;
+			}
+			File target = new File(getFileName(player));
+			target.getParentFile().mkdirs();
+			// Write it under another name so a worker is never sent half a bundle
+			File tmp = new File(target.getPath() + ".tmp");
+			ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.putNextEntry(new ZipEntry(KEY_ENTRY));
+				out.write(key.getBytes("UTF-8"));
+				out.closeEntry();
+				int prefix = workingDir.getAbsolutePath().length() + 1;
+				Collection<File> classFiles = FileUtils.listFiles(workingDir, null, true);
+				for (File f: classFiles) {
+					out.putNextEntry(new ZipEntry(f.getAbsolutePath().substring(prefix).replace(File.separatorChar, '/')));
+					InputStream in = new FileInputStream(f);
+					try {
+						IOUtils.copy(in, out);
+					} finally {
+						in.close();
+					}
+					out.closeEntry();
+				}
+			} finally {
+				out.close();
+			}
+			target.delete();
+			if (!tmp.renameTo(target)) {
+				tmp.delete();
+				throw new IOException("Could not write compiled player " + target.getPath());
+			}
+			return true;
+		} finally {
+			FileUtils.deleteDirectory(workingDir);
+		}
+	}
+
+	/**
+	 * Extract one of the packages of a player's bundle
+	 * @param player
+	 * @param key The current key of the player.  Nothing is extracted from a bundle that was
+	 * compiled from another version of the player or battlecode.
+	 * @param teamName The package to extract
+	 * @param dir The directory to extract the package into
+	 * @return false if there is no current bundle
+	 * @throws IOException
+	 */
+	public static boolean extract(String player, String key, String teamName, File dir) throws IOException {
+		if (!key.equals(readKey(player))) {
+			return false;
+		}
+		ZipFile zip = new ZipFile(getFileName(player));
+		try {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (entry.isDirectory() || !entry.getName().startsWith(teamName + "/")) {
+					continue;
+				}
+				File f = new File(dir, entry.getName());
+				f.getParentFile().mkdirs();
+				InputStream in = zip.getInputStream(entry);
+				OutputStream out = new FileOutputStream(f);
+				try {
+					IOUtils.copy(in, out);
+				} finally {
+					in.close();
+					out.close();
+				}
+			}
+		} finally {
+			zip.close();
+		}
+		return true;
+	}
+
+}
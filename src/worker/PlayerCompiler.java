@@ -0,0 +1,271 @@
+package worker;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.apache.log4j.Logger;
+
+import common.Config;
+
+/**
+ * Compiles a player jar under a new package name.  The renamed sources and the compiled classes
+ * are kept in memory, and the classes are only written out if the whole player compiled, so
+ * players can be compiled at the same time without sharing a working directory.  The compiler's
+ * messages are kept for {@link #getDiagnostics()} instead of going to stdout.
+ * @author stevearc
+ *
+ */
+public class PlayerCompiler implements Callable<Boolean> {
+	private static Logger _log = Logger.getLogger(PlayerCompiler.class);
+	private final String teamName;
+	private final String jarFile;
+	private final File outputDir;
+	private String diagnostics = "";
+	private boolean compiled;
+
+	/**
+	 *
+	 * @param teamName The package name to give the player
+	 * @param jarFile
+	 * @param outputDir The directory to write the package of compiled classes into
+	 */
+	public PlayerCompiler(String teamName, String jarFile, File outputDir) {
+		this.teamName = teamName;
+		this.jarFile = jarFile;
+		this.outputDir = outputDir;
+	}
+
+	public String getTeamName() {
+		return teamName;
+	}
+
+	/**
+	 *
+	 * @return true if the player's package is in the output directory
+	 */
+	public boolean isCompiled() {
+		return compiled;
+	}
+
+	/**
+	 *
+	 * @return The errors and warnings from the last compile
+	 */
+	public String getDiagnostics() {
+		return diagnostics;
+	}
+
+	/**
+	 * A source file whose contents are in memory
+	 */
+	private static class Source extends SimpleJavaFileObject {
+		private final String code;
+
+		public Source(String name, String code) throws IOException {
+			super(uriFor(name), Kind.SOURCE);
+			this.code = code;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return code;
+		}
+	}
+
+	/**
+	 * A class file that is kept in memory
+	 */
+	private static class ClassOutput extends SimpleJavaFileObject {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		public ClassOutput(String className) throws IOException {
+			super(uriFor(className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+		}
+
+		@Override
+		public OutputStream openOutputStream() {
+			return bytes;
+		}
+	}
+
+	/**
+	 * Reads classes the usual way, and keeps the classes it compiles in memory
+	 */
+	private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+		private final Map<String, ClassOutput> classes = new HashMap<String, ClassOutput>();
+
+		public MemoryFileManager(StandardJavaFileManager fileManager) {
+			super(fileManager);
+		}
+
+		@Override
+		public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className, Kind kind,
+				FileObject sibling) throws IOException {
+			ClassOutput output = new ClassOutput(className);
+			classes.put(className, output);
+			return output;
+		}
+	}
+
+	private static URI uriFor(String path) throws IOException {
+		try {
+			return new URI("string", "/" + path, null);
+		} catch (URISyntaxException e) {
+			throw new IOException("Invalid file name in player: " + path, e);
+		}
+	}
+
+	/**
+	 * Compile the player, unless its package is already in the output directory
+	 * @return false if javac reported errors
+	 * @throws IOException
+	 */
+	@Override
+	public Boolean call() throws IOException {
+		if (new File(outputDir, teamName).exists()) {
+			compiled = true;
+			return true;
+		}
+		_log.info("Compiling player " + teamName);
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		if (javac == null) {
+			throw new IOException("No java compiler found.  Players can only be compiled when running on a JDK.");
+		}
+		DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<JavaFileObject>();
+		MemoryFileManager fileManager = new MemoryFileManager(javac.getStandardFileManager(collector, null, null));
+		boolean succeeded;
+		try {
+			List<String> options = Arrays.asList("-classpath", Config.battlecodeServerFile);
+			succeeded = javac.getTask(null, fileManager, collector, options, null, readSources()).call();
+		} finally {
+			fileManager.close();
+		}
+		StringBuilder sb = new StringBuilder();
+		for (Diagnostic<? extends JavaFileObject> d: collector.getDiagnostics()) {
+			sb.append(d.toString()).append("\n");
+		}
+		diagnostics = sb.toString();
+		if (!succeeded) {
+			return false;
+		}
+		for (Map.Entry<String, ClassOutput> entry: fileManager.classes.entrySet()) {
+			File f = new File(outputDir, entry.getKey().replace('.', File.separatorChar) + Kind.CLASS.extension);
+			f.getParentFile().mkdirs();
+			FileOutputStream out = new FileOutputStream(f);
+			try {
+				entry.getValue().bytes.writeTo(out);
+			} finally {
+				out.close();
+			}
+		}
+		compiled = true;
+		return true;
+	}
+
+	/**
+	 * Read the sources out of the player jar, with the package renamed to teamName
+	 */
+	private List<JavaFileObject> readSources() throws IOException {
+		JarFile jar = new JarFile(jarFile);
+		try {
+			// First search for the package name
+			Enumeration<JarEntry> searchEntries = jar.entries();
+			String packageName = null;
+			while (searchEntries.hasMoreElements() && packageName == null) {
+				JarEntry file = searchEntries.nextElement();
+				if (file.getName().endsWith("RobotPlayer.java")) {
+					packageName = file.getName().substring(0, file.getName().length() - "/RobotPlayer.java".length());
+				}
+			}
+			if (packageName == null) {
+				throw new IOException("Cannot find package name; no file ends in RobotPlayer.java");
+			}
+
+			List<JavaFileObject> sources = new ArrayList<JavaFileObject>();
+			Enumeration<JarEntry> entries = jar.entries();
+			while (entries.hasMoreElements()) {
+				JarEntry file = entries.nextElement();
+				if (file.isDirectory() || !file.getName().endsWith(".java")) {
+					continue;
+				}
+				BufferedReader br = new BufferedReader(new InputStreamReader(jar.getInputStream(file)));
+				StringBuilder code = new StringBuilder();
+				try {
+					String line;
+					while ((line = br.readLine()) != null) {
+						code.append(line.replaceAll("package " + packageName, "package " + teamName).replaceAll("import " + packageName, "import " + teamName));
+						code.append("\n");
+					}
+				} finally {
+					br.close();
+				}
+				sources.add(new Source(file.getName(), code.toString()));
+			}
+			return sources;
+		} finally {
+			jar.close();
+		}
+	}
+
+	/**
+	 * Compile several players at the same time
+	 * @param compilers
+	 * @return false if any of the players had errors
+	 * @throws IOException
+	 */
+	public static boolean compileAll(List<PlayerCompiler> compilers) throws IOException {
+		if (compilers.isEmpty()) {
+			return true;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(compilers.size());
+		try {
+			boolean compiled = true;
+			for (Future<Boolean> result: executor.invokeAll(compilers)) {
+				compiled &= result.get();
+			}
+			return compiled;
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while compiling players", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Error compiling players", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,89 @@
+package worker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.util.zip.GZIPInputStream;
+
+import battlecode.server.proxy.XStreamProxy;
+
+/**
+ * Compares how fast XStream and the {@link ReplayDecoder} read match files.  Each file is
+ * decompressed into memory first, so the MB/s is of replay XML and doesn't include gunzip.
+ *
+ * Run with: java -cp bs-tester.jar:lib/*:battlecode-server.jar worker.ReplayBenchmark iterations file.rms...
+ * @author stevearc
+ *
+ */
+public class ReplayBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: ReplayBenchmark iterations file.rms...");
+			System.exit(1);
+		}
+		int iterations = Integer.parseInt(args[0]);
+		System.out.println(String.format("%-30s %8s %10s %12s %12s", "file", "MB", "objects", "xstream MB/s", "decoder MB/s"));
+		for (int i = 1; i < args.length; i++) {
+			byte[] xml = readXml(args[i]);
+			int objects = 0;
+			// Warm up the JIT before timing
+			for (int j = 0; j < Math.max(1, iterations / 10); j++) {
+				objects = decode(xml, false);
+				decode(xml, true);
+			}
+			double xstream = throughput(xml, iterations, false);
+			double decoder = throughput(xml, iterations, true);
+			System.out.println(String.format("%-30s %8.1f %10d %12.1f %12.1f", args[i], xml.length / 1e6, objects,
+					xstream, decoder));
+		}
+	}
+
+	private static double throughput(byte[] xml, int iterations, boolean useDecoder) throws Exception {
+		long start = System.nanoTime();
+		for (int j = 0; j < iterations; j++) {
+			decode(xml, useDecoder);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		return xml.length / 1e6 * iterations / seconds;
+	}
+
+	/**
+	 *
+	 * @return The number of objects read
+	 */
+	private static int decode(byte[] xml, boolean useDecoder) throws Exception {
+		InputStream in = new ByteArrayInputStream(xml);
+		ObjectInputStream input;
+		if (useDecoder) {
+			input = new ReplayDecoder(in);
+		} else {
+			input = XStreamProxy.getXStream().createObjectInputStream(in);
+		}
+		int objects = 0;
+		try {
+			while (input.readObject() != null) {
+				objects++;
+			}
+		} catch (EOFException e) {
+		}
+		input.close();
+		return objects;
+	}
+
+	private static byte[] readXml(String filename) throws IOException {
+		InputStream in = new GZIPInputStream(new FileInputStream(filename));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[65536];
+		int n;
+		while ((n = in.read(buf)) != -1) {
+			out.write(buf, 0, n);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+}
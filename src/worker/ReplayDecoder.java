@@ -0,0 +1,304 @@
+package worker;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xmlpull.mxp1.MXParser;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import battlecode.common.RobotType;
+import battlecode.common.Team;
+import battlecode.serial.DominationFactor;
+import battlecode.serial.ExtensibleMetadata;
+import battlecode.serial.GameStats;
+import battlecode.serial.MatchFooter;
+import battlecode.serial.MatchHeader;
+import battlecode.server.proxy.XStreamProxy;
+
+/**
+ * Reads the XML match files written by {@link XStreamProxy} with a pull parser instead of
+ * deserializing every object by reflection.  Only what {@link GameData} uses is read: the signals
+ * it handles become a {@link ReplayRound} for each round, and every other element is skipped
+ * without building any objects.
+ *
+ * Anything that doesn't look like that format throws a {@link StreamCorruptedException}, so the
+ * caller can read the file again with XStream.
+ * @author stevearc
+ *
+ */
+class ReplayDecoder extends ObjectInputStream {
+	private final InputStream in;
+	private final XmlPullParser parser = new MXParser();
+	private boolean started;
+	private boolean finished;
+	// The last location parsed
+	private int x;
+	private int y;
+
+	public ReplayDecoder(InputStream in) throws IOException {
+		super();
+		this.in = in;
+		try {
+			parser.setInput(in, null);
+		} catch (XmlPullParserException e) {
+			throw corrupted(e);
+		}
+	}
+
+	@Override
+	protected Object readObjectOverride() throws IOException {
+		if (finished) {
+			throw new EOFException();
+		}
+		try {
+			if (!started) {
+				if (parser.nextTag() != XmlPullParser.START_TAG || !"object-stream".equals(parser.getName())) {
+					throw new StreamCorruptedException("Not an XStream object stream");
+				}
+				started = true;
+			}
+			while (parser.nextTag() == XmlPullParser.START_TAG) {
+				String name = parser.getName();
+				if ("ser.RoundDelta".equals(name)) {
+					return readRound();
+				} else if ("ser.MatchHeader".equals(name)) {
+					checkNotReference();
+					MatchHeader header = new MatchHeader(null, null, intAttribute("matchNumber", 0),
+							intAttribute("matchCount", 0));
+					skipElement();
+					return header;
+				} else if ("ser.ExtensibleMetadata".equals(name)) {
+					checkNotReference();
+					ExtensibleMetadata metadata = readMetadata();
+					skipElement();
+					return metadata;
+				} else if ("ser.GameStats".equals(name)) {
+					checkNotReference();
+					GameStats stats = new GameStats();
+					String dominationFactor = parser.getAttributeValue(null, "dominationFactor");
+					if (dominationFactor != null) {
+						stats.setDominationFactor(parseEnum(DominationFactor.class, dominationFactor));
+					}
+					skipElement();
+					return stats;
+				} else if ("ser.MatchFooter".equals(name)) {
+					checkNotReference();
+					String winner = parser.getAttributeValue(null, "winner");
+					MatchFooter footer = new MatchFooter(winner == null ? null : parseEnum(Team.class, winner), null);
+					skipElement();
+					return footer;
+				}
+				// GameData doesn't use anything else
+				skipElement();
+			}
+			finished = true;
+			throw new EOFException();
+		} catch (XmlPullParserException e) {
+			throw corrupted(e);
+		}
+	}
+
+	private ReplayRound readRound() throws XmlPullParserException, IOException {
+		ReplayRound round = new ReplayRound();
+		while (parser.nextTag() == XmlPullParser.START_TAG) {
+			String name = parser.getName();
+			if ("sig.SpawnSignal".equals(name)) {
+				checkNotReference();
+				parseLocation(attribute("loc"));
+				round.spawn(parseInt(attribute("robotID")), parseEnum(Team.class, attribute("team")),
+						parseEnum(RobotType.class, attribute("type")), x, y);
+			} else if ("sig.DeathSignal".equals(name)) {
+				checkNotReference();
+				round.death(parseInt(attribute("objectID")));
+			} else if ("sig.MovementSignal".equals(name)) {
+				checkNotReference();
+				parseLocation(attribute("newLoc"));
+				round.movement(parseInt(attribute("robotID")), x, y);
+			} else if ("sig.FluxChangeSignal".equals(name)) {
+				checkNotReference();
+				round.fluxChange(parseInts(attribute("robotIDs")), parseDoubles(attribute("flux")));
+			} else if ("sig.BytecodesUsedSignal".equals(name)) {
+				checkNotReference();
+				round.bytecodesUsed(parseInts(attribute("robotIDs")), parseInts(attribute("numBytecodes")));
+			} else if ("sig.MatchObservationSignal".equals(name)) {
+				checkNotReference();
+				round.observation(parseInt(attribute("robotID")), attribute("observation"));
+			}
+			skipElement();
+		}
+		return round;
+	}
+
+	/**
+	 * Same as the ExtensibleMetadataConverter in {@link XStreamProxy}
+	 */
+	private ExtensibleMetadata readMetadata() {
+		Map<String, Object> data = new HashMap<String, Object>();
+		for (int i = 0; i < parser.getAttributeCount(); i++) {
+			String key = parser.getAttributeName(i);
+			String value = parser.getAttributeValue(i);
+			if (key.equals("maps")) {
+				data.put(key, value.split(","));
+			} else {
+				data.put(key, value);
+			}
+		}
+		return new ExtensibleMetadata(data);
+	}
+
+	/**
+	 * Skip to the end of the current element, including anything inside it
+	 */
+	private void skipElement() throws XmlPullParserException, IOException {
+		int depth = 1;
+		while (depth > 0) {
+			switch (parser.next()) {
+			case XmlPullParser.START_TAG:
+				depth++;
+				break;
+			case XmlPullParser.END_TAG:
+				depth--;
+				break;
+			case XmlPullParser.END_DOCUMENT:
+				throw new EOFException();
+			}
+		}
+	}
+
+	/**
+	 * XStream writes repeated objects as references to the first one, which this doesn't follow
+	 */
+	private void checkNotReference() throws StreamCorruptedException {
+		if (parser.getAttributeValue(null, "reference") != null) {
+			throw new StreamCorruptedException("Replay contains references at " + parser.getPositionDescription());
+		}
+	}
+
+	private String attribute(String name) throws StreamCorruptedException {
+		String value = parser.getAttributeValue(null, name);
+		if (value == null) {
+			throw new StreamCorruptedException("Missing " + name + " at " + parser.getPositionDescription());
+		}
+		return value;
+	}
+
+	private <T extends Enum<T>> T parseEnum(Class<T> type, String value) throws StreamCorruptedException {
+		try {
+			return Enum.valueOf(type, value);
+		} catch (IllegalArgumentException e) {
+			throw new StreamCorruptedException("Invalid " + type.getSimpleName() + " " + value);
+		}
+	}
+
+	private int intAttribute(String name, int defaultValue) throws StreamCorruptedException {
+		String value = parser.getAttributeValue(null, name);
+		return value == null ? defaultValue : parseInt(value);
+	}
+
+	private int parseInt(String value) throws StreamCorruptedException {
+		return parseInt(value, 0, value.length());
+	}
+
+	private int parseInt(String value, int start, int end) throws StreamCorruptedException {
+		boolean negative = start < end && value.charAt(start) == '-';
+		int i = negative ? start + 1 : start;
+		if (i == end) {
+			throw new StreamCorruptedException("Invalid int " + value);
+		}
+		int result = 0;
+		for (; i < end; i++) {
+			int digit = value.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new StreamCorruptedException("Invalid int " + value);
+			}
+			result = result * 10 + digit;
+		}
+		return negative ? -result : result;
+	}
+
+	/**
+	 * Parse a location written as "x,y" into {@link #x} and {@link #y}
+	 */
+	private void parseLocation(String value) throws StreamCorruptedException {
+		int comma = value.indexOf(',');
+		if (comma < 0) {
+			throw new StreamCorruptedException("Invalid MapLocation " + value);
+		}
+		x = parseInt(value, 0, comma);
+		y = parseInt(value, comma + 1, value.length());
+	}
+
+	/**
+	 * Parse a comma separated list.  Empty entries are ignored, like the array converters in
+	 * {@link XStreamProxy} do.
+	 */
+	private int[] parseInts(String value) throws StreamCorruptedException {
+		int[] result = new int[countTokens(value)];
+		int n = 0;
+		int start = 0;
+		while (start <= value.length()) {
+			int end = value.indexOf(',', start);
+			if (end < 0) {
+				end = value.length();
+			}
+			if (end > start) {
+				result[n++] = parseInt(value, start, end);
+			}
+			start = end + 1;
+		}
+		return result;
+	}
+
+	private double[] parseDoubles(String value) throws StreamCorruptedException {
+		double[] result = new double[countTokens(value)];
+		int n = 0;
+		int start = 0;
+		while (start <= value.length()) {
+			int end = value.indexOf(',', start);
+			if (end < 0) {
+				end = value.length();
+			}
+			if (end > start) {
+				try {
+					result[n++] = Double.parseDouble(value.substring(start, end));
+				} catch (NumberFormatException e) {
+					throw new StreamCorruptedException("Invalid double " + value);
+				}
+			}
+			start = end + 1;
+		}
+		return result;
+	}
+
+	private int countTokens(String value) {
+		int count = 0;
+		boolean inToken = false;
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) == ',') {
+				inToken = false;
+			} else if (!inToken) {
+				inToken = true;
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private StreamCorruptedException corrupted(XmlPullParserException e) {
+		StreamCorruptedException corrupted = new StreamCorruptedException(e.getMessage());
+		corrupted.initCause(e);
+		return corrupted;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+}
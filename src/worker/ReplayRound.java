@@ -0,0 +1,135 @@
+package worker;
+
+import java.util.Arrays;
+
+import battlecode.common.MapLocation;
+import battlecode.common.RobotType;
+import battlecode.common.Team;
+
+/**
+ * The signals of one round that {@link GameData} uses, as read by the {@link ReplayDecoder}.
+ * Instead of an object per signal, each signal is a kind followed by its operands in flat arrays.
+ * @author stevearc
+ *
+ */
+class ReplayRound {
+	private static final byte SPAWN = 0;
+	private static final byte DEATH = 1;
+	private static final byte MOVEMENT = 2;
+	private static final byte FLUX_CHANGE = 3;
+	private static final byte BYTECODES_USED = 4;
+	private static final byte OBSERVATION = 5;
+	private static final Team[] TEAMS = Team.values();
+	private static final RobotType[] TYPES = RobotType.values();
+
+	private byte[] kinds = new byte[64];
+	private int numKinds;
+	private int[] ints = new int[128];
+	private int numInts;
+	private Object[] objects = new Object[16];
+	private int numObjects;
+
+	void spawn(int id, Team team, RobotType type, int x, int y) {
+		addKind(SPAWN);
+		addInt(id);
+		addInt(team.ordinal());
+		addInt(type.ordinal());
+		addInt(x);
+		addInt(y);
+	}
+
+	void death(int id) {
+		addKind(DEATH);
+		addInt(id);
+	}
+
+	void movement(int id, int x, int y) {
+		addKind(MOVEMENT);
+		addInt(id);
+		addInt(x);
+		addInt(y);
+	}
+
+	void fluxChange(int[] ids, double[] flux) {
+		addKind(FLUX_CHANGE);
+		addObject(ids);
+		addObject(flux);
+	}
+
+	void bytecodesUsed(int[] ids, int[] bytecodes) {
+		addKind(BYTECODES_USED);
+		addObject(ids);
+		addObject(bytecodes);
+	}
+
+	void observation(int id, String observation) {
+		addKind(OBSERVATION);
+		addInt(id);
+		addObject(observation);
+	}
+
+	public int size() {
+		return numKinds;
+	}
+
+	/**
+	 * Send the signals to the analysis in the order they were read
+	 * @param gameData
+	 */
+	void replay(GameData gameData) {
+		int i = 0;
+		int o = 0;
+		for (int k = 0; k < numKinds; k++) {
+			switch (kinds[k]) {
+			case SPAWN:
+				gameData.robotSpawned(ints[i], TEAMS[ints[i + 1]], TYPES[ints[i + 2]],
+						new MapLocation(ints[i + 3], ints[i + 4]));
+				i += 5;
+				break;
+			case DEATH:
+				gameData.robotDied(ints[i]);
+				i += 1;
+				break;
+			case MOVEMENT:
+				gameData.robotMoved(ints[i], new MapLocation(ints[i + 1], ints[i + 2]));
+				i += 3;
+				break;
+			case FLUX_CHANGE:
+				gameData.fluxChanged((int[]) objects[o], (double[]) objects[o + 1]);
+				o += 2;
+				break;
+			case BYTECODES_USED:
+				gameData.bytecodesUsed((int[]) objects[o], (int[]) objects[o + 1]);
+				o += 2;
+				break;
+			case OBSERVATION:
+				gameData.observationMade(ints[i], (String) objects[o]);
+				i += 1;
+				o += 1;
+				break;
+			}
+		}
+	}
+
+	private void addKind(byte kind) {
+		if (numKinds == kinds.length) {
+			kinds = Arrays.copyOf(kinds, numKinds * 2);
+		}
+		kinds[numKinds++] = kind;
+	}
+
+	private void addInt(int value) {
+		if (numInts == ints.length) {
+			ints = Arrays.copyOf(ints, numInts * 2);
+		}
+		ints[numInts++] = value;
+	}
+
+	private void addObject(Object value) {
+		if (numObjects == objects.length) {
+			objects = Arrays.copyOf(objects, numObjects * 2);
+		}
+		objects[numObjects++] = value;
+	}
+
+}
@@ -0,0 +1,154 @@
+package worker;
+
+import java.util.Arrays;
+
+import battlecode.common.GameConstants;
+import battlecode.common.MapLocation;
+import battlecode.common.RobotType;
+import battlecode.common.Team;
+
+/**
+ * The robots alive in a match, indexed directly by robot ID.  IDs are small and dense within a
+ * match, so this is a set of arrays instead of a map of boxed IDs to robot objects.
+ * @author stevearc
+ *
+ */
+class RobotTable {
+	private static final int INITIAL_CAPACITY = 256;
+	private static final RobotType[] TYPES = RobotType.values();
+	private static final Team[] TEAMS = Team.values();
+	private boolean[] alive;
+	private byte[] team;
+	private byte[] type;
+	private double[] flux;
+	private boolean[] on;
+	private MapLocation[] location;
+	// Only used for archons.  The nearest archon is -1 if no archon is closer than the production penalty distance
+	private int[] nearestArchon;
+	private int[] nearestArchonDist;
+	private double[] production;
+
+	public RobotTable() {
+		alive = new boolean[INITIAL_CAPACITY];
+		team = new byte[INITIAL_CAPACITY];
+		type = new byte[INITIAL_CAPACITY];
+		flux = new double[INITIAL_CAPACITY];
+		on = new boolean[INITIAL_CAPACITY];
+		location = new MapLocation[INITIAL_CAPACITY];
+		nearestArchon = new int[INITIAL_CAPACITY];
+		nearestArchonDist = new int[INITIAL_CAPACITY];
+		production = new double[INITIAL_CAPACITY];
+	}
+
+	public void add(int id, Team team, RobotType type, MapLocation location) {
+		if (id >= alive.length) {
+			grow(Math.max(id + 1, alive.length * 2));
+		}
+		alive[id] = true;
+		this.team[id] = (byte) team.ordinal();
+		this.type[id] = (byte) type.ordinal();
+		flux[id] = 0;
+		on[id] = false;
+		this.location[id] = location;
+		nearestArchon[id] = -1;
+		nearestArchonDist[id] = GameConstants.PRODUCTION_PENALTY_R2;
+		production[id] = 0;
+	}
+
+	public void remove(int id) {
+		alive[id] = false;
+		location[id] = null;
+	}
+
+	public boolean contains(int id) {
+		return id >= 0 && id < alive.length && alive[id];
+	}
+
+	private void grow(int capacity) {
+		alive = Arrays.copyOf(alive, capacity);
+		team = Arrays.copyOf(team, capacity);
+		type = Arrays.copyOf(type, capacity);
+		flux = Arrays.copyOf(flux, capacity);
+		on = Arrays.copyOf(on, capacity);
+		location = Arrays.copyOf(location, capacity);
+		nearestArchon = Arrays.copyOf(nearestArchon, capacity);
+		nearestArchonDist = Arrays.copyOf(nearestArchonDist, capacity);
+		production = Arrays.copyOf(production, capacity);
+	}
+
+	public int getTeamIndex(int id) {
+		return team[id];
+	}
+
+	public Team getTeam(int id) {
+		return TEAMS[team[id]];
+	}
+
+	public int getTypeIndex(int id) {
+		return type[id];
+	}
+
+	public RobotType getType(int id) {
+		return TYPES[type[id]];
+	}
+
+	public double getFlux(int id) {
+		return flux[id];
+	}
+
+	public void setFlux(int id, double flux) {
+		this.flux[id] = flux;
+	}
+
+	public MapLocation getLocation(int id) {
+		return location[id];
+	}
+
+	public void setLocation(int id, MapLocation location) {
+		this.location[id] = location;
+	}
+
+	public boolean isOn(int id) {
+		return on[id];
+	}
+
+	/**
+	 *
+	 * @return true if the status has changed
+	 */
+	public boolean recalculateOnStatus(int id) {
+		RobotType robotType = TYPES[type[id]];
+		boolean newOn = robotType == RobotType.ARCHON || robotType == RobotType.TOWER || flux[id] > GameConstants.UNIT_UPKEEP;
+		if (newOn != on[id]) {
+			on[id] = newOn;
+			return true;
+		}
+		return false;
+	}
+
+	public int getNearestArchon(int id) {
+		return nearestArchon[id];
+	}
+
+	public int getNearestArchonDist(int id) {
+		return nearestArchonDist[id];
+	}
+
+	public double getProduction(int id) {
+		return production[id];
+	}
+
+	/**
+	 * Set the nearest archon on the same team and update the flux produced each round
+	 * @param id
+	 * @param nearest ID of the nearest archon, or -1
+	 * @param dist Squared distance to the nearest archon
+	 */
+	public void setNearestArchon(int id, int nearest, int dist) {
+		nearestArchon[id] = nearest;
+		nearestArchonDist[id] = dist;
+		production[id] = GameConstants.MIN_PRODUCTION + (GameConstants.MAX_PRODUCTION - GameConstants.MIN_PRODUCTION)*
+		Math.sqrt(((double)dist)/GameConstants.PRODUCTION_PENALTY_R2);
+	}
+
+}
@@ -0,0 +1,54 @@
+package worker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import battlecode.engine.signal.Signal;
+
+/**
+ * Sends each signal to the handlers registered for its class or any of its superclasses.  The
+ * handlers for a signal class are looked up the first time it is seen and cached, so each signal
+ * costs one map lookup, and signals nobody handles are skipped.
+ * @author stevearc
+ *
+ */
+public class SignalDispatcher {
+	private static final SignalHandler<?>[] NO_HANDLERS = new SignalHandler<?>[0];
+	private final List<Class<?>> types = new ArrayList<Class<?>>();
+	private final List<SignalHandler<?>> handlers = new ArrayList<SignalHandler<?>>();
+	private final HashMap<Class<?>, SignalHandler<?>[]> resolved = new HashMap<Class<?>, SignalHandler<?>[]>();
+
+	/**
+	 * Add a handler for a type of signal.  Handlers run in the order they were registered.
+	 * @param type
+	 * @param handler
+	 */
+	public <T extends Signal> void register(Class<T> type, SignalHandler<? super T> handler) {
+		types.add(type);
+		handlers.add(handler);
+		resolved.clear();
+	}
+
+	@SuppressWarnings("unchecked")
+	public void dispatch(Signal signal, int round) {
+		SignalHandler<?>[] signalHandlers = resolved.get(signal.getClass());
+		if (signalHandlers == null) {
+			signalHandlers = resolve(signal.getClass());
+			resolved.put(signal.getClass(), signalHandlers);
+		}
+		for (SignalHandler<?> handler: signalHandlers) {
+			((SignalHandler<Signal>) handler).handle(signal, round);
+		}
+	}
+
+	private SignalHandler<?>[] resolve(Class<?> signalClass) {
+		List<SignalHandler<?>> matching = new ArrayList<SignalHandler<?>>();
+		for (int i = 0; i < types.size(); i++) {
+			if (types.get(i).isAssignableFrom(signalClass)) {
+				matching.add(handlers.get(i));
+			}
+		}
+		return (matching.isEmpty() ? NO_HANDLERS : matching.toArray(new SignalHandler<?>[matching.size()]));
+	}
+}
@@ -0,0 +1,20 @@
+package worker;
+
+import battlecode.engine.signal.Signal;
+
+/**
+ * Handles one type of signal while a match is analyzed
+ * @author stevearc
+ *
+ * @param <T> The type of signal handled
+ */
+public interface SignalHandler<T extends Signal> {
+
+	/**
+	 *
+	 * @param signal
+	 * @param round The round the signal was sent in, starting from 0
+	 */
+	public void handle(T signal, int round);
+
+}
@@ -0,0 +1,142 @@
+package worker;
+
+import java.util.Arrays;
+
+import model.TeamMatchResult;
+
+/**
+ * Running totals for one team while a match is analyzed, and the per-round series recorded from
+ * them.  The series are kept in growable primitive columns so recording a round doesn't allocate.
+ * @author stevearc
+ *
+ */
+class TeamStats {
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int TOTAL_ROBOTS = 0;
+	private static final int ACTIVE_ROBOTS = 1;
+	private static final int ROBOTS_BUILT = 2;
+	private static final int ROBOTS_KILLED = 3;
+	private static final int NUM_TOTALS = 4;
+	private static final int FLUX_SPAWNING = 0;
+	private static final int FLUX_MOVING = 1;
+	private static final int FLUX_UPKEEP = 2;
+	private static final int FLUX_GATHERED = 3;
+	private static final int NUM_FLUX = 4;
+
+	private final int numTypes;
+	// Index is one of the totals, or NUM_TOTALS + total * numTypes + type for the per-type counts
+	private final int[] counts;
+	private final double[] flux = new double[NUM_FLUX];
+	private int[][] countSeries;
+	private double[][] fluxSeries;
+	private int rounds;
+
+	public TeamStats(int numTypes) {
+		this.numTypes = numTypes;
+		counts = new int[NUM_TOTALS * (numTypes + 1)];
+		countSeries = new int[counts.length][INITIAL_CAPACITY];
+		fluxSeries = new double[NUM_FLUX][INITIAL_CAPACITY];
+	}
+
+	public void robotAdded(int type) {
+		add(TOTAL_ROBOTS, type, 1);
+	}
+
+	public void robotRemoved(int type) {
+		add(TOTAL_ROBOTS, type, -1);
+	}
+
+	public void robotActivated(int type) {
+		add(ACTIVE_ROBOTS, type, 1);
+	}
+
+	public void robotDeactivated(int type) {
+		add(ACTIVE_ROBOTS, type, -1);
+	}
+
+	public void robotBuilt(int type, double cost) {
+		add(ROBOTS_BUILT, type, 1);
+		flux[FLUX_SPAWNING] += cost;
+	}
+
+	public void robotKilled(int type) {
+		add(ROBOTS_KILLED, type, 1);
+	}
+
+	public void fluxSpentOnMoving(double amount) {
+		flux[FLUX_MOVING] += amount;
+	}
+
+	public void fluxSpentOnUpkeep(double amount) {
+		flux[FLUX_UPKEEP] += amount;
+	}
+
+	public void fluxGathered(double amount) {
+		flux[FLUX_GATHERED] += amount;
+	}
+
+	private void add(int total, int type, int delta) {
+		counts[total] += delta;
+		counts[NUM_TOTALS + total * numTypes + type] += delta;
+	}
+
+	/**
+	 * Record the current totals as the values for the next round
+	 */
+	public void endRound() {
+		if (rounds == countSeries[0].length) {
+			int capacity = rounds * 2;
+			for (int i = 0; i < countSeries.length; i++) {
+				countSeries[i] = Arrays.copyOf(countSeries[i], capacity);
+			}
+			for (int i = 0; i < fluxSeries.length; i++) {
+				fluxSeries[i] = Arrays.copyOf(fluxSeries[i], capacity);
+			}
+		}
+		for (int i = 0; i < counts.length; i++) {
+			countSeries[i][rounds] = counts[i];
+		}
+		for (int i = 0; i < flux.length; i++) {
+			fluxSeries[i][rounds] = flux[i];
+		}
+		rounds++;
+	}
+
+	public int getRounds() {
+		return rounds;
+	}
+
+	/**
+	 *
+	 * @return The recorded rounds.  Nothing is shared with this object.
+	 */
+	public TeamMatchResult toResult() {
+		TeamMatchResult tmr = new TeamMatchResult();
+		tmr.setTotalRobots(series(TOTAL_ROBOTS));
+		tmr.setActiveRobots(series(ACTIVE_ROBOTS));
+		tmr.setTotalRobotsBuilt(series(ROBOTS_BUILT));
+		tmr.setTotalRobotsKilled(series(ROBOTS_KILLED));
+		tmr.setRobotsByType(seriesByType(TOTAL_ROBOTS));
+		tmr.setActiveRobotsByType(seriesByType(ACTIVE_ROBOTS));
+		tmr.setRobotsBuiltByType(seriesByType(ROBOTS_BUILT));
+		tmr.setRobotsKilledByType(seriesByType(ROBOTS_KILLED));
+		tmr.setFluxSpentOnSpawning(Arrays.copyOf(fluxSeries[FLUX_SPAWNING], rounds));
+		tmr.setFluxSpentOnMoving(Arrays.copyOf(fluxSeries[FLUX_MOVING], rounds));
+		tmr.setFluxSpentOnUpkeep(Arrays.copyOf(fluxSeries[FLUX_UPKEEP], rounds));
+		tmr.setTotalFluxGathered(Arrays.copyOf(fluxSeries[FLUX_GATHERED], rounds));
+		return tmr;
+	}
+
+	private int[] series(int index) {
+		return Arrays.copyOf(countSeries[index], rounds);
+	}
+
+	private int[][] seriesByType(int total) {
+		int[][] byType = new int[numTypes][];
+		for (int type = 0; type < numTypes; type++) {
+			byType[type] = series(NUM_TOTALS + total * numTypes + type);
+		}
+		return byType;
+	}
+
+}
@@ -10,6 +10,9 @@ import java.net.Socket;
 import java.net.UnknownHostException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
 
 import javax.net.SocketFactory;
 
@@ -27,7 +30,7 @@ import networking.PacketCmd;
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
 
-import common.BSUtil;
+import common.FileHashCache;
 import common.Config;
 import common.NetworkMatch;
 
@@ -43,44 +46,108 @@ public class Worker implements Controller, Runnable {
 	private int cores;
 	private int dataPort;
 	private MatchRunner[] running;
+	// Every core but the first runs its matches in its own long-lived JVM
+	private MatchProcess[] matchProcesses;
+	// Or every core runs its matches in this JVM with its own copy of the engine
+	private MatchContext[] matchContexts;
+	private DependencyHashes[] runningDeps;
 	private boolean runWorker = true;
 	private SocketFactory sf;
+	private FileHashCache hashCache;
+	private CompiledPlayerCache playerCache;
+	// Keeps our uploads from colliding with other workers running the same match
+	private final String uploadPrefix = Long.toHexString(new Random().nextLong()) + "-";
 
 	public Worker(String serverAddr, int dataPort, int cores) throws Exception{
 		this.serverAddr = serverAddr;
 		this.dataPort = dataPort;
 		this.cores = cores;
 		running = new MatchRunner[cores];
+		matchProcesses = new MatchProcess[cores];
+		matchContexts = new MatchContext[cores];
+		for (int i = 0; i < cores; i++) {
+			matchProcesses[i] = new MatchProcess(i);
+			matchContexts[i] = new MatchContext(i);
+		}
+		runningDeps = new DependencyHashes[cores];
 		sf = SocketFactory.getDefault();
+		hashCache = new FileHashCache(Config.hashIndexFile);
+		playerCache = new CompiledPlayerCache(Config.playerCacheDir, hashCache);
 	}
 
 	public synchronized void matchFailed(MatchRunner runner, int core, NetworkMatch match) {
-		matchFinish(runner, core, match, null, null, null, null, null);
+		matchFailed(runner, core, match, null);
+	}
+
+	/**
+	 * Tell the master that a match failed
+	 * @param runner
+	 * @param core
+	 * @param match
+	 * @param error Why the match failed, such as the compiler's errors.  The master logs it.
+	 */
+	public synchronized void matchFailed(MatchRunner runner, int core, NetworkMatch match, String error) {
+		sendRunReply(runner, core, new Object[] {match, null, null, null, null, null, error});
 	}
 
 	/**
 	 * Send match data to master
-	 * @param mr
+	 * @param runner
+	 * @param core
 	 * @param match
 	 * @param status
-	 * @param winner
-	 * @param win_condition
-	 * @param a_points
-	 * @param b_points
-	 * @param data
+	 * @param result
+	 * @param replayUpload Where the replay file was uploaded to on the master
+	 * @param outputUpload Where the gzipped output file was uploaded to on the master
+	 * @param observationsUpload Where the gzipped observations were uploaded to on the master
 	 */
 	public synchronized void matchFinish(MatchRunner runner, int core, NetworkMatch match, STATUS status, 
-			MatchResultImpl result, byte[] data, byte[] outputData, String observations) {
+			MatchResultImpl result, String replayUpload, String outputUpload, String observationsUpload) {
+		sendRunReply(runner, core, new Object[] {match, status, result, replayUpload, outputUpload, observationsUpload, null});
+	}
+
+	private void sendRunReply(MatchRunner runner, int core, Object[] reply) {
 		// If the runner is out of date, we should ignore it
 		if (running[core] != runner) {
 			return;
 		}
-		Packet p = new Packet(PacketCmd.RUN_REPLY, new Object[] {match, status, result, data, outputData, observations});
-		network.send(p);
+		network.send(new Packet(PacketCmd.RUN_REPLY, reply));
 		running[core].stop();
 		running[core] = null;
 	}
 
+	/**
+	 * Stream a match file to the master's upload directory.  This doesn't lock the Worker, so 
+	 * it can be called from the MatchRunner threads.
+	 * @param match
+	 * @param file
+	 * @param suffix
+	 * @return The path the file was uploaded to on the master
+	 * @throws IOException
+	 */
+	public String uploadMatchFile(NetworkMatch match, String file, String suffix) throws IOException {
+		return uploadFile(new File(file), match.id + suffix);
+	}
+
+	/**
+	 * Stream a file from analyzing a scrimmage to the master's upload directory.  Like 
+	 * {@link #uploadMatchFile(NetworkMatch, String, String)}, this doesn't lock the Worker.
+	 * @param scrim
+	 * @param file
+	 * @param suffix
+	 * @return The path the file was uploaded to on the master
+	 * @throws IOException
+	 */
+	public String uploadScrimmageFile(BSScrimmageSet scrim, File file, String suffix) throws IOException {
+		return uploadFile(file, "scrim" + scrim.getId() + suffix);
+	}
+
+	private String uploadFile(File file, String name) throws IOException {
+		String target = Config.uploadDir + uploadPrefix + name;
+		network.sendFile(file, target);
+		return target;
+	}
+
 	public synchronized void matchAnalyzed(MatchRunner runner, int core, BSScrimmageSet scrim, STATUS status) {
 		// If the runner is out of date, we should ignore it
 		if (running[core] != runner) {
@@ -100,10 +167,10 @@ public class Worker implements Controller, Runnable {
 				if (network == null || !network.isConnected()) {
 					try {
 						Socket socket = sf.createSocket(serverAddr, dataPort);
-						network = new Network(this, socket);
+						network = new Network(this, socket, true);
 						new Thread(network).start();
 						_log.info("Connecting to master");
-						network.send(new Packet(PacketCmd.REQUEST_MATCH, new Object[0]));
+						network.send(new Packet(PacketCmd.REQUEST_MATCHES, new Object[] {cores}));
 					} catch (UnknownHostException e) {
 					} catch (IOException e) {
 					}
@@ -120,7 +187,7 @@ public class Worker implements Controller, Runnable {
 			return true;
 		}
 		try {
-			if (!deps.bsTesterHash.equals(BSUtil.bsHashDependency("bs-tester.jar"))) {
+			if (!deps.bsTesterHash.equals(hashCache.bsHashDependency("bs-tester.jar"))) {
 				return false;
 			}
 		} catch (NoSuchAlgorithmException e) {
@@ -141,16 +208,16 @@ public class Worker implements Controller, Runnable {
 			return true;
 		}
 		try {
-			if (!deps.battlecodeServerHash.equals(BSUtil.bsHashDependency(Config.battlecodeServerFile))) {
+			if (!deps.battlecodeServerHash.equals(hashCache.bsHashDependency(Config.battlecodeServerFile))) {
 				return false;
 			}
-			if (!deps.allowedPackagesHash.equals(BSUtil.bsHashDependency(Config.allowedPackagesFile))) {
+			if (!deps.allowedPackagesHash.equals(hashCache.bsHashDependency(Config.allowedPackagesFile))) {
 				return false;
 			}
-			if (!deps.disallowedClassesHash.equals(BSUtil.bsHashDependency(Config.disallowedClassesFile))) {
+			if (!deps.disallowedClassesHash.equals(hashCache.bsHashDependency(Config.disallowedClassesFile))) {
 				return false;
 			}
-			if (!deps.methodCostsHash.equals(BSUtil.bsHashDependency(Config.methodCostsFile))) {
+			if (!deps.methodCostsHash.equals(hashCache.bsHashDependency(Config.methodCostsFile))) {
 				return false;
 			}
 		} catch (NoSuchAlgorithmException e) {
@@ -170,7 +237,7 @@ public class Worker implements Controller, Runnable {
 		File mapFile = new File(Config.mapsDir + map.getMapName() + ".xml");
 		if (mapFile.exists()) {
 			try {
-				return map.getHash().equals(BSUtil.bsHashDependency(mapFile.getAbsolutePath()));
+				return map.getHash().equals(hashCache.bsHashDependency(mapFile.getPath()));
 			} catch (NoSuchAlgorithmException e) {
 				_log.error("Can't find SHA1 hash!", e);
 			} catch (IOException e) {
@@ -180,17 +247,33 @@ public class Worker implements Controller, Runnable {
 		return false;
 	}
 
-	private boolean havePlayer(String player) {
+	private boolean havePlayer(String player, String hash) {
 		File playerFile = new File(Config.teamsDir + player + ".jar");
-		return playerFile.exists();
+		if (hash == null) {
+			// Master did not send a hash, so all we can do is check that we have the file
+			return playerFile.exists();
+		}
+		if (playerFile.exists()) {
+			try {
+				return hash.equals(hashCache.bsHashDependency(playerFile.getPath()));
+			} catch (NoSuchAlgorithmException e) {
+				_log.error("Can't find SHA1 hash!", e);
+			} catch (IOException e) {
+				_log.error("Can't read player file!", e);
+			}
+		}
+		return false;
 	}
 
 	/**
 	 * Checks to make sure we have the right files.  Requests them if not.
 	 * @param match
+	 * @param deps
+	 * @param requested Names of the files that have already been requested.  They will not be requested 
+	 * again, and the files requested by this call are added to the set.
 	 * @return
 	 */
-	private boolean resolveDependencies(NetworkMatch match, DependencyHashes deps) {
+	private boolean resolveDependencies(NetworkMatch match, DependencyHashes deps, Set<String> requested) {
 		boolean allClear = true;
 		boolean needUpdateBsTester = false;
 		boolean needUpdate = false;
@@ -209,15 +292,20 @@ public class Worker implements Controller, Runnable {
 			allClear = false;
 			needMap = true;
 		}
-		if (!havePlayer(match.team_a)) {
+		if (!havePlayer(match.team_a, match.team_a_hash)) {
 			allClear = false;
 			needTeamA = true;
 		}
-		if (!havePlayer(match.team_b)) {
+		if (!havePlayer(match.team_b, match.team_b_hash)) {
 			allClear = false;
 			needTeamB = true;
 		}
-		if (!allClear) {
+		needUpdateBsTester = needUpdateBsTester && requested.add("bs-tester.jar");
+		needUpdate = needUpdate && requested.add(Config.battlecodeServerFile);
+		needMap = needMap && requested.add(Config.mapsDir + match.map.getMapName() + ".xml");
+		needTeamA = needTeamA && requested.add(Config.teamsDir + match.team_a + ".jar");
+		needTeamB = needTeamB && requested.add(Config.teamsDir + match.team_b + ".jar");
+		if (needUpdateBsTester || needUpdate || needMap || needTeamA || needTeamB) {
 			_log.info("Requesting " + 
 					(needUpdateBsTester ? "bs-tester.jar, " : "") + 
 					(needUpdate ? "battlecode files, " : "") + 
@@ -244,6 +332,36 @@ public class Worker implements Controller, Runnable {
 		return !needDeps;
 	}
 
+	/**
+	 * 
+	 * @param dep
+	 * @param match
+	 * @return true if one of the match's player jars was just received and still doesn't match
+	 * the hash the match asked for
+	 */
+	private boolean receivedStalePlayer(Dependencies dep, NetworkMatch match) {
+		return (receivedPlayer(dep, match.team_a) && !havePlayer(match.team_a, match.team_a_hash)) || 
+				(receivedPlayer(dep, match.team_b) && !havePlayer(match.team_b, match.team_b_hash));
+	}
+
+	private boolean receivedPlayer(Dependencies dep, String player) {
+		if ((dep.teamA != null && player.equals(dep.teamAName)) || (dep.teamB != null && player.equals(dep.teamBName))) {
+			return true;
+		}
+		return dep.files != null && Arrays.asList(dep.files).contains(Config.teamsDir + player + ".jar");
+	}
+
+	/**
+	 * Checks to see if we have all the files for a match without requesting anything
+	 * @param match
+	 * @param deps
+	 * @return
+	 */
+	private boolean haveDependencies(NetworkMatch match, DependencyHashes deps) {
+		return bsTesterUpToDate(deps) && battlecodeUpToDate(deps) && haveMap(match.map) && 
+				havePlayer(match.team_a, match.team_a_hash) && havePlayer(match.team_b, match.team_b_hash);
+	}
+
 	private boolean fileEqualsData(File file, byte[] data) throws IOException {
 		if (file.length() != data.length) {
 			return false;
@@ -271,7 +389,9 @@ public class Worker implements Controller, Runnable {
 		File[] garbageDirs = new File("teams").listFiles(new FileFilter() {
 			@Override
 			public boolean accept(File pathname) {
-				return !pathname.getAbsolutePath().endsWith(".jar");
+				// Players copied from the cache are checked against their jars before they are used
+				return !pathname.getAbsolutePath().endsWith(".jar") && 
+						!new File(pathname, CompiledPlayerCache.KEY_FILE).exists();
 			}
 		});
 		for (File f: garbageDirs) {
@@ -284,7 +404,8 @@ public class Worker implements Controller, Runnable {
 		garbageDirs = new File(".").listFiles(new FileFilter() {
 			@Override
 			public boolean accept(File pathname) {
-				return pathname.getAbsolutePath().endsWith(".rms") || pathname.getAbsolutePath().endsWith(".out");
+				return pathname.getAbsolutePath().endsWith(".rms") || pathname.getAbsolutePath().endsWith(".out") || 
+						pathname.getAbsolutePath().endsWith(".out.gz");
 			}
 		});
 		for (File f: garbageDirs) {
@@ -304,6 +425,8 @@ public class Worker implements Controller, Runnable {
 			return false;
 		}
 		boolean needRestart = false;
+		// The match processes may have already loaded the old players or battlecode settings
+		boolean needRecycle = false;
 		try {
 			if (dep.battlecodeServer != null) {
 				writeDataToFile(dep.battlecodeServer, Config.battlecodeServerFile);
@@ -311,49 +434,144 @@ public class Worker implements Controller, Runnable {
 			}
 			if (dep.allowedPackages != null) {
 				writeDataToFile(dep.allowedPackages, Config.allowedPackagesFile);
+				needRecycle = true;
 			}
 			if (dep.disallowedClasses != null) {
 				writeDataToFile(dep.disallowedClasses, Config.disallowedClassesFile);
+				needRecycle = true;
 			}
 			if (dep.methodCosts != null) {
 				writeDataToFile(dep.methodCosts, Config.methodCostsFile);
+				needRecycle = true;
 			}
 			if (dep.map != null) {
 				writeDataToFile(dep.map, Config.mapsDir + dep.mapName + ".xml");
 			}
 			if (dep.teamA != null) {
 				writeDataToFile(dep.teamA, Config.teamsDir + dep.teamAName + ".jar");
+				deleteCompiledPlayer(dep.teamAName);
+				needRecycle = true;
 			}
 			if (dep.teamB != null) {
 				writeDataToFile(dep.teamB, Config.teamsDir + dep.teamBName + ".jar");
+				deleteCompiledPlayer(dep.teamBName);
+				needRecycle = true;
 			}
 			if (dep.bsTester != null) {
 				writeDataToFile(dep.bsTester, "bs-tester.jar");
 				needRestart = true;
 			}
+			// Streamed files were already written to disk by the Network
+			if (dep.files != null) {
+				for (String file: dep.files) {
+					if (!new File(file).exists()) {
+						_log.error("Did not receive dependency " + file);
+						continue;
+					}
+					if (file.equals(Config.battlecodeServerFile) || file.equals("bs-tester.jar")) {
+						needRestart = true;
+					} else if (file.equals(Config.teamsDir + dep.teamAName + ".jar")) {
+						deleteCompiledPlayer(dep.teamAName);
+						needRecycle = true;
+					} else if (file.equals(Config.teamsDir + dep.teamBName + ".jar")) {
+						deleteCompiledPlayer(dep.teamBName);
+						needRecycle = true;
+					} else if (file.equals(Config.allowedPackagesFile) || file.equals(Config.disallowedClassesFile) || 
+							file.equals(Config.methodCostsFile)) {
+						needRecycle = true;
+					}
+				}
+			}
 
 		} catch (IOException e) {
 			_log.error("Could not create player or map file", e);
 		}
+		if (needRecycle) {
+			recycleMatchProcesses();
+		}
 		return needRestart;
 	}
 
+	/**
+	 * This doesn't lock the Worker, so it can be called from the MatchRunner threads.
+	 * @param core
+	 * @return The match process that runs the matches of a core
+	 */
+	public MatchProcess getMatchProcess(int core) {
+		return matchProcesses[core];
+	}
+
+	/**
+	 * This doesn't lock the Worker, so it can be called from the MatchRunner threads.
+	 * @param core
+	 * @return The context that runs the matches of a core inside this JVM
+	 */
+	public MatchContext getMatchContext(int core) {
+		return matchContexts[core];
+	}
+
+	/**
+	 * Make the match processes start a new JVM, and the match contexts load a new engine, before 
+	 * their next match
+	 */
+	private void recycleMatchProcesses() {
+		for (MatchProcess process: matchProcesses) {
+			process.recycle();
+		}
+		for (MatchContext context: matchContexts) {
+			context.recycle();
+		}
+	}
+
+	/**
+	 * Remove the compiled classes of a player whose jar has changed
+	 * @param player
+	 * @throws IOException
+	 */
+	private void deleteCompiledPlayer(String player) throws IOException {
+		String name = player.replaceAll("\\W", "_");
+		FileUtils.deleteDirectory(new File(Config.teamsDir + "A" + name));
+		FileUtils.deleteDirectory(new File(Config.teamsDir + "B" + name));
+	}
+
 	private void compilePlayers(String teamA, String teamB) throws IOException {
-		// Make sure we have compiled the players
+		// Make sure we have compiled the current versions of the players
 		String team_a = teamA.replaceAll("\\W", "_");
 		String team_b = teamB.replaceAll("\\W", "_");
-		if (!new File(Config.teamsDir + "A" + team_a).exists() || 
-				!new File(Config.teamsDir + "B" + team_b).exists()) {
-			String aJar = Config.teamsDir + teamA + ".jar";
-			String bJar = Config.teamsDir + teamB + ".jar";
-			MatchRunner.compilePlayer("A" + team_a, aJar);
-			MatchRunner.compilePlayer("B" + team_b, bJar);
-		}
+		playerCache.install(new String[] {"A" + team_a, "B" + team_b}, new String[] {teamA, teamB});
 	}
 
 	private void requestAnother() {
-		_log.info("Requesting another match");
-		network.send(new Packet(PacketCmd.REQUEST_MATCH, new Object[0]));
+		int numFreeCores = 0;
+		for (int core = 0; core < cores; core++) {
+			if (running[core] == null) {
+				numFreeCores++;
+			}
+		}
+		_log.info("Requesting " + numFreeCores + " more matches");
+		network.send(new Packet(PacketCmd.REQUEST_MATCHES, new Object[] {numFreeCores}));
+	}
+
+	/**
+	 * Start a match on a free core, or wait for its dependencies to arrive
+	 * @param match
+	 * @param deps
+	 * @param core
+	 * @param requested The dependency files that have already been requested
+	 */
+	private void startMatch(NetworkMatch match, DependencyHashes deps, int core, Set<String> requested) {
+		MatchRunner m = new MatchRunner(this, match, core);
+		running[core] = m;
+		runningDeps[core] = deps;
+		if (resolveDependencies(match, deps, requested)) {
+			try {
+				compilePlayers(match.team_a, match.team_b);
+				m.start();
+			} catch (IOException e) {
+				_log.error("Error compiling players", e);
+				matchFailed(m, core, match, e.getMessage());
+			}
+		}
 	}
 
 	@Override
@@ -376,25 +594,31 @@ public class Worker implements Controller, Runnable {
 			
 			// Could not find free core
 			if (numFreeCores == 0) {
-				Packet response = new Packet(PacketCmd.RUN_REPLY, new Object[] {match, null, null, null, null, null});
+				Packet response = new Packet(PacketCmd.RUN_REPLY, new Object[] {match, null, null, null, null, null, null});
 				network.send(response);
 				break;
 			}
 
-			MatchRunner m = null;
-			m = new MatchRunner(this, match, freeCore);
-			running[freeCore] = m;
-			if (resolveDependencies(match, deps)) {
-				try {
-					compilePlayers(match.team_a, match.team_b);
-					Thread thread = new Thread(m);
-					thread.start();
-					if (numFreeCores > 1)
-						requestAnother();
-				} catch (IOException e) {
-					_log.error("Error compiling players", e);
-					matchFailed(m, freeCore, match);
+			startMatch(match, deps, freeCore, new HashSet<String>());
+			if (running[freeCore] != null && running[freeCore].isStarted() && numFreeCores > 1)
+				requestAnother();
+			break;
+		case RUN_BATCH:
+			NetworkMatch[] matches = (NetworkMatch[]) p.get(0);
+			DependencyHashes batchDeps = (DependencyHashes) p.get(1);
+			Set<String> requested = new HashSet<String>();
+			int nextCore = 0;
+			for (NetworkMatch batchMatch: matches) {
+				while (nextCore < cores && running[nextCore] != null) {
+					nextCore++;
+				}
+				// Could not find free core
+				if (nextCore == cores) {
+					Packet response = new Packet(PacketCmd.RUN_REPLY, new Object[] {batchMatch, null, null, null, null, null, null});
+					network.send(response);
+					continue;
 				}
+				startMatch(batchMatch, batchDeps, nextCore, requested);
 			}
 			break;
 		case ANALYZE:
@@ -417,9 +641,9 @@ public class Worker implements Controller, Runnable {
 
 			MatchRunner mr = new MatchRunner(this, scrim, fileData, freeCore);
 			running[freeCore] = mr;
+			runningDeps[freeCore] = depHashes;
 			if (resolveDependencies(depHashes)) {
-				Thread thread = new Thread(mr);
-				thread.start();
+				mr.start();
 				if (numFreeCores > 1)
 					requestAnother();
 			}
@@ -432,15 +656,30 @@ public class Worker implements Controller, Runnable {
 				_log.info("battlecode-server.jar or bs-tester.jar updated, restarting worker");
 				System.exit(Config.RESTART_STATUS);
 			}
-			for (MatchRunner matchRunner: running) {
-				if (matchRunner != null && !matchRunner.isRunning()) {
+			for (int core = 0; core < cores; core++) {
+				MatchRunner matchRunner = running[core];
+				if (matchRunner != null && !matchRunner.isStarted()) {
+					if (matchRunner.getMatch() == null) {
+						if (bsTesterUpToDate(runningDeps[core]) && battlecodeUpToDate(runningDeps[core])) {
+							matchRunner.start();
+						}
+						continue;
+					}
+					// Other matches in the same batch may still be waiting on their own files
+					if (!haveDependencies(matchRunner.getMatch(), runningDeps[core])) {
+						if (receivedStalePlayer(dep, matchRunner.getMatch())) {
+							// Waiting won't help, the master no longer has the version this match asked for
+							_log.warn("Received player jar does not match the hash of match " + matchRunner.getMatch());
+							matchFailed(matchRunner, matchRunner.getCore(), matchRunner.getMatch());
+						}
+						continue;
+					}
 					try {
 						compilePlayers(matchRunner.getMatch().team_a, matchRunner.getMatch().team_b);
-						Thread thread = new Thread(matchRunner);
-						thread.start();
+						matchRunner.start();
 					} catch (IOException e) {
 						_log.error("Error compiling players", e);
-						matchFailed(matchRunner, matchRunner.getCore(), matchRunner.getMatch());
+						matchFailed(matchRunner, matchRunner.getCore(), matchRunner.getMatch(), e.getMessage());
 					}
 				}
 			}
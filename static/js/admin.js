@@ -33,6 +33,17 @@ $(function() {
     $('#download').button().click(function() {
         document.location='/bs-worker.tar.gz';
     });
+    $('#reanalyze').button().click(function() {
+        $.ajax({
+            url: "admin_action",
+            data: "cmd=reanalyze_matches",
+            success: function(data) {
+                if (data === "success") {
+                    alert("Re-analyzing matches in the background");
+                }
+            },
+        });
+    });
     
 });
 